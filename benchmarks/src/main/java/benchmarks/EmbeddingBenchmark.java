@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Title embedding (tokenise, look up and sum word vectors, normalise), which runs once per
+// paper at load time and once per uncached query
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    @State(Scope.Thread)
+    public static class Titles {
+        List<String> titles;
+        int next;
+
+        @Setup
+        public void setUp() {
+            titles = SyntheticCorpus.titles(4096, 7);
+        }
+
+        String next() {
+            String title = titles.get(next);
+            next = (next + 1) & (titles.size() - 1);
+            return title;
+        }
+    }
+
+    @Benchmark
+    public float[] computeSemanticVector(EngineState state, Titles titles) throws Exception {
+        return state.engine.computeSemanticVector(titles.next());
+    }
+}
@@ -0,0 +1,141 @@
+package benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The engine lives in the unnamed package, which Java code in a named package cannot import,
+// and JMH refuses benchmarks in the unnamed package. This handle reaches the engine reflectively
+// instead, including the private pipeline stages the constructor normally runs once. Method
+// lookups happen once up front; Method.invoke adds tens of nanoseconds per call, which is noise
+// next to everything measured here except computeSemanticVector.
+final class EngineHandle implements AutoCloseable {
+    private static final Class<?> ENGINE = engineClass("SemanticClusterSearchEngine");
+    private static final Class<?> SEARCH_MODE = engineClass("SemanticClusterSearchEngine$SearchMode");
+    private static final Class<?> BATCH_CALLBACK = engineClass("SemanticClusterSearchEngine$BatchCallback");
+    private static final Method LOAD_PAPERS = method("loadPapers", String.class);
+    private static final Method CREATE_LUCENE_INDEX = method("createLuceneIndex", String.class);
+    private static final Method COMPUTE_PAGE_RANK_SCORES = method("computePageRankScores");
+    private static final Method COMPUTE_SEMANTIC_VECTOR = method("computeSemanticVector", String.class);
+    private static final Method REFRESH = method("refresh");
+    private static final Method SEARCH = method("semanticSearchWithClustering",
+            String.class, int.class, int.class, SEARCH_MODE);
+    private static final Method SEARCH_BATCH = method("searchBatch",
+            List.class, int.class, int.class, SEARCH_MODE, BATCH_CALLBACK);
+    private static final Method CLOSE = method("close");
+
+    private final Object engine;
+
+    // Converts a word2vec model into a compact WordVectorStore holding the dataset's vocabulary
+    static void convertVectors(String modelPath, String datasetPath, String outputPath, boolean int8) throws Exception {
+        Method main = engineClass("WordVectorStore").getMethod("main", String[].class);
+        String[] args = int8
+                ? new String[]{modelPath, datasetPath, outputPath, "--int8"}
+                : new String[]{modelPath, datasetPath, outputPath};
+        unwrap(() -> main.invoke(null, (Object) args));
+    }
+
+    // Builds an in-memory engine over the dataset, running the whole load pipeline once
+    EngineHandle(String datasetPath, String vectorsPath) throws Exception {
+        Constructor<?> constructor = ENGINE.getConstructor(String.class, String.class);
+        this.engine = unwrap(() -> constructor.newInstance(datasetPath, vectorsPath));
+    }
+
+    // Re-reads and re-embeds the dataset. Every id is already known, so rows are replaced in
+    // place rather than appended and repeated calls leave the engine as it was.
+    void loadPapers(String datasetPath) throws Exception {
+        invoke(LOAD_PAPERS, datasetPath);
+    }
+
+    // Rebuilds the Lucene index from scratch (IndexWriter.deleteAll) and reopens the searcher on it
+    void createLuceneIndex() throws Exception {
+        invoke(CREATE_LUCENE_INDEX, (Object) null);
+        invoke(REFRESH);
+    }
+
+    void computePageRankScores() throws Exception {
+        invoke(COMPUTE_PAGE_RANK_SCORES);
+    }
+
+    float[] computeSemanticVector(String text) throws Exception {
+        return (float[]) invoke(COMPUTE_SEMANTIC_VECTOR, text);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object searchMode(String name) {
+        return Enum.valueOf((Class) SEARCH_MODE, name);
+    }
+
+    List<?> search(String query, int topN, int numClusters, Object mode) throws Exception {
+        return (List<?>) invoke(SEARCH, query, topN, numClusters, mode);
+    }
+
+    // Runs the queries through searchBatch and returns how many results came back; a failed
+    // query fails the whole call
+    int searchBatch(List<String> queries, int topN, int numClusters, Object mode) throws Exception {
+        AtomicInteger results = new AtomicInteger();
+        Object callback = Proxy.newProxyInstance(BATCH_CALLBACK.getClassLoader(), new Class<?>[]{BATCH_CALLBACK},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("onResult")) {
+                        results.incrementAndGet();
+                        return null;
+                    }
+                    if (method.getName().equals("onError")) {
+                        throw (Exception) args[2];
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        invoke(SEARCH_BATCH, queries, topN, numClusters, mode, callback);
+        return results.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        invoke(CLOSE);
+    }
+
+    private Object invoke(Method method, Object... args) throws Exception {
+        return unwrap(() -> method.invoke(engine, args));
+    }
+
+    private interface ReflectiveCall {
+        Object call() throws ReflectiveOperationException;
+    }
+
+    // Rethrows what the engine threw rather than the reflection wrapper around it
+    private static Object unwrap(ReflectiveCall call) throws Exception {
+        try {
+            return call.call();
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Class<?> engineClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Engine class " + name + " not on the classpath; run mvn install first", e);
+        }
+    }
+
+    private static Method method(String name, Class<?>... parameterTypes) {
+        try {
+            Method method = ENGINE.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("SemanticClusterSearchEngine." + name + " not found", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// One engine per trial over a synthetic corpus. Corpus size is a JMH parameter, e.g.
+// -p papers=10000,100000,1000000,5000000 (files are generated on first use and then reused).
+// -p vectors=text,wvs,wvs-int8 compares the DL4J word2vec model with the compact stores.
+@State(Scope.Benchmark)
+public class EngineState {
+    @Param({"10000"})
+    public int papers;
+
+    @Param({"text"})
+    public String vectors;
+
+    String datasetPath;
+    EngineHandle engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datasetPath = SyntheticCorpus.papers(papers).toString();
+        engine = new EngineHandle(datasetPath, SyntheticCorpus.vectors(vectors, datasetPath).toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The start-up stages, each timed as a single shot per iteration on an engine that has
+// already run the full pipeline once. Larger corpora need more heap, e.g.
+// -p papers=5000000 -jvmArgsAppend -Xmx16g
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Benchmark
+    public void loadPapers(EngineState state) throws Exception {
+        state.engine.loadPapers(state.datasetPath);
+    }
+
+    @Benchmark
+    public void createLuceneIndex(EngineState state) throws Exception {
+        state.engine.createLuceneIndex();
+    }
+
+    @Benchmark
+    public void computePageRankScores(EngineState state) throws Exception {
+        state.engine.computePageRankScores();
+    }
+}
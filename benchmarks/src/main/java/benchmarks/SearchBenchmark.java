@@ -0,0 +1,87 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end semanticSearchWithClustering: per-query latency distribution (SampleTime
+// reports percentiles) from one thread, and throughput with one thread per core (override
+// with -t). Each thread draws from 100k distinct queries, far more than the result cache holds.
+// batchThroughput pushes the same kind of queries through searchBatch, BATCH at a time, and
+// reports queries per second, directly comparable with throughput.
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int QUERY_POOL = 100_000;
+    private static final int BATCH = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Queries {
+        @Param({"20"})
+        public int topN;
+
+        @Param({"5"})
+        public int clusters;
+
+        @Param({"LEXICAL"})
+        public String mode;
+
+        List<String> queries;
+        Object searchMode;
+
+        @Setup
+        public void setUp() {
+            queries = SyntheticCorpus.queries(QUERY_POOL, 11);
+            searchMode = EngineHandle.searchMode(mode);
+        }
+
+        String next() {
+            return queries.get(ThreadLocalRandom.current().nextInt(queries.size()));
+        }
+
+        List<String> nextBatch() {
+            int from = ThreadLocalRandom.current().nextInt(queries.size() - BATCH);
+            return queries.subList(from, from + BATCH);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public List<?> latency(EngineState state, Queries queries) throws Exception {
+        return state.engine.search(queries.next(), queries.topN, queries.clusters, queries.searchMode);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(Threads.MAX)
+    public List<?> throughput(EngineState state, Queries queries) throws Exception {
+        return state.engine.search(queries.next(), queries.topN, queries.clusters, queries.searchMode);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    @Threads(1)
+    public int batchThroughput(EngineState state, Queries queries) throws Exception {
+        return state.engine.searchBatch(queries.nextBatch(), queries.topN, queries.clusters, queries.searchMode);
+    }
+}
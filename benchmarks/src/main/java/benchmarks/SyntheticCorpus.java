@@ -0,0 +1,175 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Deterministic synthetic inputs, so the benchmarks run offline and every build measures the
+// same data: a citation corpus in the #* / #@ / #t / #c / #index / #% / #! format the engine
+// loads, and a small text-format word-vector file covering its vocabulary. Files are written
+// once per size into the directory named by -Dbenchmark.data (default: a folder under
+// java.io.tmpdir) and reused by later runs.
+final class SyntheticCorpus {
+    static final int DIMENSION = 50;
+    static final int VOCABULARY = 2_000;
+
+    private static final long SEED = 42;
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ne", "ru", "ta", "vo", "zi", "pe", "so",
+            "da", "gu", "hi", "jo", "be", "fa", "xu", "wy", "qe", "ci"};
+    private static final String[] VENUES = {
+            "SIGIR", "KDD", "VLDB", "ICML", "NIPS", "WWW", "CIKM", "ACL", "SIGMOD", "ICDE"};
+    private static final int MAX_REFERENCES = 10;
+    // Recently cited papers; citing from here half the time gives a skewed, power-law-like
+    // in-degree distribution similar to real citation graphs
+    private static final int RECENT_TARGETS = 1 << 20;
+
+    private SyntheticCorpus() {
+    }
+
+    static Path dataDirectory() throws IOException {
+        Path dir = Paths.get(System.getProperty("benchmark.data",
+                Paths.get(System.getProperty("java.io.tmpdir"), "semantic-cluster-benchmarks").toString()));
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    // Three syllables give 8000 distinct pronounceable words
+    static String word(int i) {
+        return SYLLABLES[i % 20] + SYLLABLES[(i / 20) % 20] + SYLLABLES[(i / 400) % 20];
+    }
+
+    // Zipf-like skew towards low word numbers, like natural-language term frequencies
+    private static String randomWord(Random random) {
+        double u = random.nextDouble();
+        return word((int) (VOCABULARY * u * u));
+    }
+
+    static synchronized Path papers(int count) throws IOException {
+        Path file = dataDirectory().resolve("papers-" + count + ".txt");
+        if (Files.exists(file)) {
+            return file;
+        }
+        System.out.println("Generating synthetic corpus of " + count + " papers at " + file + "...");
+        Random random = new Random(SEED);
+        int[] recentTargets = new int[RECENT_TARGETS];
+        int recentCount = 0;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder(512);
+            for (int i = 0; i < count; i++) {
+                line.setLength(0);
+                line.append("#*");
+                for (int w = 0, words = 3 + random.nextInt(8); w < words; w++) {
+                    String word = randomWord(random);
+                    if (w == 0) {
+                        line.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                    } else {
+                        line.append(' ').append(word);
+                    }
+                }
+                line.append("\n#@");
+                for (int a = 0, authors = 1 + random.nextInt(4); a < authors; a++) {
+                    line.append(a == 0 ? "" : ",").append("Author").append(random.nextInt(count / 5 + 1));
+                }
+                line.append("\n#t").append(1970 + random.nextInt(51));
+                line.append("\n#c").append(VENUES[random.nextInt(VENUES.length)]);
+                line.append("\n#index").append(i);
+                if (i > 0) {
+                    for (int r = 0, references = random.nextInt(MAX_REFERENCES + 1); r < references; r++) {
+                        int target = recentCount > 0 && random.nextBoolean()
+                                ? recentTargets[random.nextInt(Math.min(recentCount, RECENT_TARGETS))]
+                                : random.nextInt(i);
+                        recentTargets[recentCount++ % RECENT_TARGETS] = target;
+                        line.append("\n#%").append(target);
+                    }
+                }
+                line.append("\n#!");
+                for (int w = 0, words = 20 + random.nextInt(21); w < words; w++) {
+                    line.append(w == 0 ? "" : " ").append(randomWord(random));
+                }
+                line.append("\n\n");
+                out.append(line);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    // Word2Vec text format: a "<words> <dimension>" header, then one word and its vector per line
+    static synchronized Path vectors() throws IOException {
+        Path file = dataDirectory().resolve("vectors-" + VOCABULARY + "x" + DIMENSION + ".txt");
+        if (Files.exists(file)) {
+            return file;
+        }
+        Random random = new Random(SEED);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.append(String.valueOf(VOCABULARY)).append(' ').append(String.valueOf(DIMENSION)).append('\n');
+            for (int i = 0; i < VOCABULARY; i++) {
+                out.append(word(i));
+                for (int d = 0; d < DIMENSION; d++) {
+                    out.append(' ').append(String.format(Locale.ROOT, "%.4f", random.nextGaussian()));
+                }
+                out.append('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    // "text" is the word2vec text file itself; "wvs" and "wvs-int8" are WordVectorStore files
+    // converted from it for the given corpus
+    static synchronized Path vectors(String format, String datasetPath) throws Exception {
+        Path text = vectors();
+        if (format.equals("text")) {
+            return text;
+        }
+        boolean int8 = format.equals("wvs-int8");
+        if (!int8 && !format.equals("wvs")) {
+            throw new IllegalArgumentException("Unknown vector format " + format + "; expected text, wvs or wvs-int8");
+        }
+        Path store = dataDirectory().resolve(Paths.get(datasetPath).getFileName() + "." + format + ".wvs");
+        if (!Files.exists(store)) {
+            EngineHandle.convertVectors(text.toString(), datasetPath, store.toString(), int8);
+        }
+        return store;
+    }
+
+    // Two- and three-word queries drawn like titles. With far more distinct queries than the
+    // engine's result cache holds, almost every search measures the full pipeline.
+    static List<String> queries(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder query = new StringBuilder(randomWord(random)).append(' ').append(randomWord(random));
+            if (random.nextBoolean()) {
+                query.append(' ').append(randomWord(random));
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    // Titles to embed, in corpus vocabulary
+    static List<String> titles(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> titles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 0, words = 3 + random.nextInt(8); w < words; w++) {
+                title.append(w == 0 ? "" : " ").append(randomWord(random));
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+// All document embeddings indexed by paper ordinal, stored row-major in pages of PAGE_ROWS
+// rows. Rows are L2-normalised on the way in, so cosine similarity is a plain dot product and
+// scoring a candidate set never allocates.
+//
+// set() rewrites a row in place under a write lock. Readers take an optimistic stamp of it,
+// which costs two volatile reads, and repeat a read that overlapped a set() under the read
+// lock, so nobody ever scores a half-written row.
+//
+// A matrix opened from an engine snapshot starts with no pages in memory: each page is copied
+// out of the memory-mapped file the first time one of its rows is touched, so opening costs
+// nothing and a search only pages in the rows it reads. The file is mapped once when the
+// matrix is opened, never from a search thread: FileChannel.map on an interrupted thread (a
+// cancelled or timed-out search) would close the snapshot's channel for good.
+public class EmbeddingMatrix {
+    // Rows per page; a power of two so a row splits into page and offset with a shift and mask
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_ROWS = 1 << PAGE_SHIFT;
+    private static final String SECTION = "embeddings";
+    // A single mapping cannot exceed 2 GB, so the section is mapped as segments of whole pages
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final int dimension;
+    // Replaced, never modified in place, when a page is added or loaded, so readers always see
+    // fully written pages. The last page may be shorter than PAGE_ROWS rows. Every replacement
+    // (add, trim, loadPage) holds the matrix's lock, so a page loaded on a search thread and a
+    // page appended by ingestion cannot overwrite each other's copy of the array.
+    private volatile float[][] pages;
+    private volatile int rows;
+    // Mapped snapshot section in segments of segmentPages pages; null for in-memory matrices
+    private final ByteBuffer[] segments;
+    private final int segmentPages;
+    // Held for writing by set(); see the class comment
+    private final StampedLock rowLock = new StampedLock();
+
+    public EmbeddingMatrix(int dimension, int initialRows) {
+        this.dimension = dimension;
+        this.pages = new float[][]{new float[Math.max(1, Math.min(initialRows, PAGE_ROWS)) * dimension]};
+        this.segments = null;
+        this.segmentPages = 0;
+    }
+
+    private EmbeddingMatrix(int dimension, int rows, ByteBuffer[] segments, int segmentPages) {
+        this.dimension = dimension;
+        this.rows = rows;
+        this.pages = new float[Math.max(1, (rows + PAGE_ROWS - 1) >>> PAGE_SHIFT)][];
+        this.segments = segments;
+        this.segmentPages = segmentPages;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    // Appends a row and returns its ordinal. Not safe to call concurrently with another writer.
+    public synchronized int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + " dimensions, got " + vector.length);
+        }
+        int row = rows;
+        int page = row >>> PAGE_SHIFT;
+        int offset = (row & (PAGE_ROWS - 1)) * dimension;
+        float[] target = page < pages.length ? page(page) : null;
+        if (target == null || offset + dimension > target.length) {
+            // Grow the last page by doubling up to a full page, or start a new one
+            int capacity = target == null ? Math.min(PAGE_ROWS, 1024) * dimension
+                    : Math.min(PAGE_ROWS * dimension, Math.max(target.length * 2, offset + dimension));
+            target = target == null ? new float[capacity] : Arrays.copyOf(target, capacity);
+            float[][] replaced = Arrays.copyOf(pages, Math.max(pages.length, page + 1));
+            replaced[page] = target;
+            pages = replaced;
+        }
+        normalizeInto(vector, target, offset);
+        rows = row + 1;
+        return row;
+    }
+
+    // Replaces an existing row in place; readers see either the old or the new row
+    public void set(int row, float[] vector) {
+        checkRow(row);
+        float[] page = page(row >>> PAGE_SHIFT);
+        long stamp = rowLock.writeLock();
+        try {
+            normalizeInto(vector, page, (row & (PAGE_ROWS - 1)) * dimension);
+        } finally {
+            rowLock.unlockWrite(stamp);
+        }
+    }
+
+    public void copyRow(int row, float[] target) {
+        checkRow(row);
+        float[] page = page(row >>> PAGE_SHIFT);
+        int offset = (row & (PAGE_ROWS - 1)) * dimension;
+        long stamp = rowLock.tryOptimisticRead();
+        System.arraycopy(page, offset, target, 0, dimension);
+        if (stamp == 0 || !rowLock.validate(stamp)) {
+            stamp = rowLock.readLock();
+            try {
+                System.arraycopy(page, offset, target, 0, dimension);
+            } finally {
+                rowLock.unlockRead(stamp);
+            }
+        }
+    }
+
+    // Cosine similarity between a row and an already normalised query
+    public float dot(int row, float[] query) {
+        float[] page = page(row >>> PAGE_SHIFT);
+        int offset = (row & (PAGE_ROWS - 1)) * dimension;
+        long stamp = rowLock.tryOptimisticRead();
+        float dot = dot(page, offset, query, 0, dimension);
+        if (stamp != 0 && rowLock.validate(stamp)) {
+            return dot;
+        }
+        stamp = rowLock.readLock();
+        try {
+            return dot(page, offset, query, 0, dimension);
+        } finally {
+            rowLock.unlockRead(stamp);
+        }
+    }
+
+    // Cosine similarity between two rows
+    public float dot(int rowA, int rowB) {
+        float[] pageA = page(rowA >>> PAGE_SHIFT);
+        float[] pageB = page(rowB >>> PAGE_SHIFT);
+        int offsetA = (rowA & (PAGE_ROWS - 1)) * dimension;
+        int offsetB = (rowB & (PAGE_ROWS - 1)) * dimension;
+        long stamp = rowLock.tryOptimisticRead();
+        float dot = dot(pageA, offsetA, pageB, offsetB, dimension);
+        if (stamp != 0 && rowLock.validate(stamp)) {
+            return dot;
+        }
+        stamp = rowLock.readLock();
+        try {
+            return dot(pageA, offsetA, pageB, offsetB, dimension);
+        } finally {
+            rowLock.unlockRead(stamp);
+        }
+    }
+
+    // Trims spare capacity once loading is finished
+    public synchronized void trim() {
+        int last = Math.max(0, (rows - 1) >>> PAGE_SHIFT);
+        float[] page = pages[last];
+        int used = Math.max(1, rows - (last << PAGE_SHIFT)) * dimension;
+        if (page != null && page.length > used) {
+            float[][] replaced = pages.clone();
+            replaced[last] = Arrays.copyOf(page, used);
+            pages = replaced;
+        }
+    }
+
+    // Writes every row, in ordinal order, as the snapshot's embeddings section
+    void writeTo(EngineSnapshot.Writer writer) throws IOException {
+        writer.meta("embeddings.dimension", Integer.toString(dimension));
+        writer.meta("embeddings.rows", Integer.toString(rows));
+        writer.beginSection(SECTION);
+        for (int page = 0, remaining = rows; remaining > 0; page++, remaining -= PAGE_ROWS) {
+            writer.writeFloats(page(page), 0, Math.min(remaining, PAGE_ROWS) * dimension);
+        }
+        writer.endSection();
+    }
+
+    // A matrix over the snapshot's embeddings section; the section is mapped now and pages
+    // are copied out of it lazily
+    static EmbeddingMatrix open(EngineSnapshot.Reader snapshot) throws IOException {
+        int dimension = Integer.parseInt(snapshot.meta("embeddings.dimension"));
+        int rows = Integer.parseInt(snapshot.meta("embeddings.rows"));
+        long length = snapshot.length(SECTION);
+        if (length != 4L * rows * dimension) {
+            throw new IOException("Snapshot embeddings section does not hold " + rows + " x " + dimension + " floats");
+        }
+        long pageBytes = 4L * PAGE_ROWS * dimension;
+        int segmentPages = (int) Math.max(1, MAX_SEGMENT_BYTES / pageBytes);
+        long segmentBytes = segmentPages * pageBytes;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((length + segmentBytes - 1) / segmentBytes)];
+        for (int i = 0; i < segments.length; i++) {
+            long offset = i * segmentBytes;
+            segments[i] = snapshot.map(SECTION, offset, (int) Math.min(segmentBytes, length - offset));
+        }
+        return new EmbeddingMatrix(dimension, rows, segments, segmentPages);
+    }
+
+    private float[] page(int page) {
+        float[] data = pages[page];
+        return data != null ? data : loadPage(page);
+    }
+
+    private synchronized float[] loadPage(int page) {
+        float[] data = pages[page];
+        if (data == null) {
+            int pageRows = Math.min(PAGE_ROWS, rows - (page << PAGE_SHIFT));
+            data = new float[pageRows * dimension];
+            if (data.length > 0) {
+                // Positioned on a duplicate; the shared segment buffer itself is never moved
+                ByteBuffer segment = segments[page / segmentPages].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                segment.position((page % segmentPages) * PAGE_ROWS * dimension * 4);
+                segment.asFloatBuffer().get(data);
+            }
+            float[][] replaced = pages.clone();
+            replaced[page] = data;
+            pages = replaced;
+        }
+        return data;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+    }
+
+    // Four independent accumulators break the add dependency chain so the JIT can keep
+    // several multiply-adds in flight (and auto-vectorise where the CPU allows)
+    static float dot(float[] a, int offsetA, float[] b, int offsetB, int dimension) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = dimension & ~3; i < bound; i += 4) {
+            s0 += a[offsetA + i] * b[offsetB + i];
+            s1 += a[offsetA + i + 1] * b[offsetB + i + 1];
+            s2 += a[offsetA + i + 2] * b[offsetB + i + 2];
+            s3 += a[offsetA + i + 3] * b[offsetB + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += a[offsetA + i] * b[offsetB + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // Returns a normalised float copy; the zero vector (no known words) stays zero
+    public static float[] normalize(double[] vector) {
+        double norm = 0;
+        for (double v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm > 0) {
+            double scale = 1 / Math.sqrt(norm);
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = (float) (vector[i] * scale);
+            }
+        }
+        return normalized;
+    }
+
+    private static void normalizeInto(float[] vector, float[] target, int offset) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        double scale = norm > 0 ? 1 / Math.sqrt(norm) : 0;
+        for (int i = 0; i < vector.length; i++) {
+            target[offset + i] = (float) (vector[i] * scale);
+        }
+    }
+}
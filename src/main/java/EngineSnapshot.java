@@ -0,0 +1,547 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Versioned binary snapshot of a fully built engine: paper metadata, PageRank scores and the
+// id <-> ordinal mapping (see PaperStore), and the normalised embedding matrix. Written once
+// after a full build, then opened instead of the text dataset, so a restart or a new replica
+// costs a file copy and an mmap rather than parsing, embedding and PageRank. Layout
+// (little-endian):
+//
+//   header    magic, version, reserved long
+//   sections  named byte ranges, each starting on an 8-byte boundary
+//   footer    section count, then per section: name, offset, length, CRC32;
+//             metadata count, then per entry: key, value (strings as int length + UTF-8)
+//   trailer   footer offset, footer length, footer CRC32, magic
+//
+// Opening reads and checks only the footer; section data is memory-mapped on demand, so
+// nothing is paged in until it is used. Section checksums are checked by verify() and the
+// command line tool, since checking them on open would read the whole file.
+public class EngineSnapshot {
+    // Engine constructors treat a dataset path with this extension as a snapshot
+    public static final String EXTENSION = ".scs";
+
+    private static final int MAGIC = 0x53435331; // "SCS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int TRAILER_BYTES = 20;
+    private static final int ALIGNMENT = 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final String FOOTER = "<footer>";
+
+    private EngineSnapshot() {
+    }
+
+    // Writes to a temporary file next to the target, moved into place by commit()
+    public static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    public static Reader open(Path file) throws IOException {
+        return new Reader(file);
+    }
+
+    public static class Section {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final int checksum;
+
+        Section(String name, long offset, long length, int checksum) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        // CRC32 of the section bytes
+        public int getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s offset %12d  length %12d  crc32 %08x", name, offset, length, checksum);
+        }
+    }
+
+    // Streams sections to the file one at a time. Metadata may be added at any point before
+    // commit(); closing without commit() deletes the partial file.
+    public static class Writer implements Closeable {
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private final Map<String, Section> sections = new LinkedHashMap<>();
+        private final Map<String, String> meta = new LinkedHashMap<>();
+        // Bytes written so far, buffered ones included
+        private long position;
+        private String current;
+        private long sectionStart;
+        private boolean committed;
+
+        private Writer(Path file) throws IOException {
+            this.target = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0);
+            position = HEADER_BYTES;
+        }
+
+        public void meta(String key, String value) {
+            meta.put(key, value);
+        }
+
+        public void beginSection(String name) throws IOException {
+            if (current != null) {
+                throw new IllegalStateException("Snapshot section " + current + " is still open");
+            }
+            if (sections.containsKey(name) || name.equals(FOOTER)) {
+                throw new IllegalArgumentException("Duplicate snapshot section " + name);
+            }
+            begin(name);
+        }
+
+        private void begin(String name) throws IOException {
+            while (position % ALIGNMENT != 0) {
+                room(1, 1);
+                buffer.put((byte) 0);
+                position++;
+            }
+            // Padding stays outside the checksum
+            flush();
+            current = name;
+            sectionStart = position;
+            crc.reset();
+        }
+
+        public void endSection() throws IOException {
+            checkOpen();
+            flush();
+            sections.put(current, new Section(current, sectionStart, position - sectionStart, (int) crc.getValue()));
+            current = null;
+        }
+
+        public void writeInts(int[] values, int offset, int count) throws IOException {
+            checkOpen();
+            for (int i = offset, end = offset + count; i < end; ) {
+                int n = room(4, end - i);
+                buffer.asIntBuffer().put(values, i, n);
+                advance(4, n);
+                i += n;
+            }
+        }
+
+        public void writeLongs(long[] values, int offset, int count) throws IOException {
+            checkOpen();
+            for (int i = offset, end = offset + count; i < end; ) {
+                int n = room(8, end - i);
+                buffer.asLongBuffer().put(values, i, n);
+                advance(8, n);
+                i += n;
+            }
+        }
+
+        public void writeFloats(float[] values, int offset, int count) throws IOException {
+            checkOpen();
+            for (int i = offset, end = offset + count; i < end; ) {
+                int n = room(4, end - i);
+                buffer.asFloatBuffer().put(values, i, n);
+                advance(4, n);
+                i += n;
+            }
+        }
+
+        public void writeDoubles(double[] values, int offset, int count) throws IOException {
+            checkOpen();
+            for (int i = offset, end = offset + count; i < end; ) {
+                int n = room(8, end - i);
+                buffer.asDoubleBuffer().put(values, i, n);
+                advance(8, n);
+                i += n;
+            }
+        }
+
+        // Writes the remaining bytes of the buffer straight to the file
+        public void writeBytes(ByteBuffer bytes) throws IOException {
+            checkOpen();
+            flush();
+            long length = bytes.remaining();
+            crc.update(bytes.duplicate());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            position += length;
+        }
+
+        // One-call sections for whole primitive columns
+        public void intSection(String name, int[] values, int count) throws IOException {
+            beginSection(name);
+            writeInts(values, 0, count);
+            endSection();
+        }
+
+        public void longSection(String name, long[] values, int count) throws IOException {
+            beginSection(name);
+            writeLongs(values, 0, count);
+            endSection();
+        }
+
+        public void doubleSection(String name, double[] values, int count) throws IOException {
+            beginSection(name);
+            writeDoubles(values, 0, count);
+            endSection();
+        }
+
+        // Writes the footer and trailer, syncs the file and moves it into place
+        public void commit() throws IOException {
+            if (current != null) {
+                throw new IllegalStateException("Snapshot section " + current + " is still open");
+            }
+            begin(FOOTER);
+            putInt(sections.size());
+            for (Section section : sections.values()) {
+                putString(section.name);
+                putLong(section.offset);
+                putLong(section.length);
+                putInt(section.checksum);
+            }
+            putInt(meta.size());
+            for (Map.Entry<String, String> entry : meta.entrySet()) {
+                putString(entry.getKey());
+                putString(entry.getValue());
+            }
+            flush();
+            long footerLength = position - sectionStart;
+            current = null;
+
+            room(TRAILER_BYTES, 1);
+            buffer.putLong(sectionStart).putInt((int) footerLength).putInt((int) crc.getValue()).putInt(MAGIC);
+            position += TRAILER_BYTES;
+            flush();
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            room(4, 1);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        private void putLong(long value) throws IOException {
+            room(8, 1);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        private void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            writeBytes(ByteBuffer.wrap(bytes));
+        }
+
+        // How many of the wanted values of this width fit in the buffer, flushing it when
+        // not even one does
+        private int room(int width, int wanted) throws IOException {
+            if (buffer.remaining() < width) {
+                flush();
+            }
+            return Math.min(wanted, buffer.remaining() / width);
+        }
+
+        private void advance(int width, int count) {
+            buffer.position(buffer.position() + width * count);
+            position += (long) width * count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            if (current != null) {
+                crc.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void checkOpen() {
+            if (current == null) {
+                throw new IllegalStateException("No snapshot section is open");
+            }
+        }
+    }
+
+    // An opened snapshot. Mapped section buffers stay valid after close(), but lazily paged
+    // readers such as EmbeddingMatrix need the snapshot open for as long as they are used.
+    public static class Reader implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final Map<String, Section> sections = new LinkedHashMap<>();
+        private final Map<String, String> meta = new LinkedHashMap<>();
+
+        private Reader(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < HEADER_BYTES + TRAILER_BYTES) {
+                    throw new IOException("Not an engine snapshot (too short): " + file);
+                }
+                ByteBuffer header = read(0, HEADER_BYTES);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("Not an engine snapshot (bad magic): " + file);
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported engine snapshot version " + header.getInt(4) + ": " + file);
+                }
+                ByteBuffer trailer = read(size - TRAILER_BYTES, TRAILER_BYTES);
+                long footerOffset = trailer.getLong(0);
+                int footerLength = trailer.getInt(8);
+                if (trailer.getInt(16) != MAGIC || footerOffset < HEADER_BYTES || footerLength < 0
+                        || footerOffset + footerLength != size - TRAILER_BYTES) {
+                    throw new IOException("Engine snapshot is truncated or has a damaged trailer: " + file);
+                }
+                ByteBuffer bytes = read(footerOffset, footerLength);
+                CRC32 crc = new CRC32();
+                crc.update(bytes.duplicate());
+                if ((int) crc.getValue() != trailer.getInt(12)) {
+                    throw new IOException("Engine snapshot footer checksum mismatch: " + file);
+                }
+
+                int sectionCount = bytes.getInt();
+                for (int i = 0; i < sectionCount; i++) {
+                    Section section = new Section(getString(bytes), bytes.getLong(), bytes.getLong(), bytes.getInt());
+                    if (section.offset < HEADER_BYTES || section.length < 0
+                            || section.offset + section.length > footerOffset) {
+                        throw new IOException("Engine snapshot section " + section.name + " is out of bounds: " + file);
+                    }
+                    sections.put(section.name, section);
+                }
+                int metaCount = bytes.getInt();
+                for (int i = 0; i < metaCount; i++) {
+                    meta.put(getString(bytes), getString(bytes));
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } catch (RuntimeException e) {
+                channel.close();
+                throw new IOException("Damaged engine snapshot footer: " + file, e);
+            }
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        public List<Section> sections() {
+            return Collections.unmodifiableList(new ArrayList<>(sections.values()));
+        }
+
+        public Map<String, String> meta() {
+            return Collections.unmodifiableMap(meta);
+        }
+
+        public String meta(String key) throws IOException {
+            String value = meta.get(key);
+            if (value == null) {
+                throw new IOException("Engine snapshot has no " + key + " entry: " + file);
+            }
+            return value;
+        }
+
+        public boolean hasSection(String name) {
+            return sections.containsKey(name);
+        }
+
+        public long length(String name) throws IOException {
+            return section(name).length;
+        }
+
+        // Read-only little-endian mapping of part of a section; pages in on first access
+        public ByteBuffer map(String name, long offset, int length) throws IOException {
+            Section section = section(name);
+            if (offset < 0 || length < 0 || offset + length > section.length) {
+                throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " of section " + name
+                        + " (" + section.length + " bytes)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, section.offset + offset, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Whole primitive columns copied onto the heap
+        public int[] readInts(String name) throws IOException {
+            ByteBuffer bytes = mapWhole(name, 4);
+            int[] values = new int[bytes.remaining() / 4];
+            bytes.asIntBuffer().get(values);
+            return values;
+        }
+
+        public long[] readLongs(String name) throws IOException {
+            ByteBuffer bytes = mapWhole(name, 8);
+            long[] values = new long[bytes.remaining() / 8];
+            bytes.asLongBuffer().get(values);
+            return values;
+        }
+
+        public double[] readDoubles(String name) throws IOException {
+            ByteBuffer bytes = mapWhole(name, 8);
+            double[] values = new double[bytes.remaining() / 8];
+            bytes.asDoubleBuffer().get(values);
+            return values;
+        }
+
+        // Re-reads every section and returns those whose checksum does not match
+        public List<Section> verify() throws IOException {
+            List<Section> damaged = new ArrayList<>();
+            ByteBuffer chunk = ByteBuffer.allocate(BUFFER_BYTES);
+            CRC32 crc = new CRC32();
+            for (Section section : sections.values()) {
+                crc.reset();
+                for (long done = 0; done < section.length; ) {
+                    chunk.clear().limit((int) Math.min(chunk.capacity(), section.length - done));
+                    readFully(section.offset + done, chunk);
+                    chunk.flip();
+                    done += chunk.remaining();
+                    crc.update(chunk);
+                }
+                if ((int) crc.getValue() != section.checksum) {
+                    damaged.add(section);
+                }
+            }
+            return damaged;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private Section section(String name) throws IOException {
+            Section section = sections.get(name);
+            if (section == null) {
+                throw new IOException("Engine snapshot has no " + name + " section: " + file);
+            }
+            return section;
+        }
+
+        private ByteBuffer mapWhole(String name, int width) throws IOException {
+            long length = length(name);
+            if (length % width != 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("Engine snapshot section " + name + " has an invalid length " + length);
+            }
+            return map(name, 0, (int) length);
+        }
+
+        private ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(offset, bytes);
+            bytes.flip();
+            return bytes;
+        }
+
+        private void readFully(long offset, ByteBuffer target) throws IOException {
+            while (target.hasRemaining()) {
+                if (channel.read(target, offset + target.position()) < 0) {
+                    throw new IOException("Unexpected end of engine snapshot: " + file);
+                }
+            }
+        }
+
+        private static String getString(ByteBuffer bytes) {
+            byte[] value = new byte[bytes.getInt()];
+            bytes.get(value);
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Snapshot tool:
+    //   java EngineSnapshot build <dataset> <word vectors> <output.scs>
+    //   java EngineSnapshot verify <snapshot.scs>
+    //   java EngineSnapshot inspect <snapshot.scs>
+    // Pass the snapshot in place of the dataset path to start an engine from it.
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        if (command.equals("build") && args.length == 4) {
+            long start = System.nanoTime();
+            Path output = Paths.get(args[3]);
+            try (SemanticClusterSearchEngine engine = new SemanticClusterSearchEngine(args[1], args[2])) {
+                engine.writeSnapshot(output);
+            }
+            System.out.printf("Wrote %s (%.1f MB) in %.1fs.%n", output, Files.size(output) / 1e6,
+                    (System.nanoTime() - start) / 1e9);
+        } else if (command.equals("verify") && args.length == 2) {
+            try (Reader snapshot = open(Paths.get(args[1]))) {
+                List<Section> damaged = snapshot.verify();
+                for (Section section : damaged) {
+                    System.out.println("Checksum mismatch: " + section);
+                }
+                System.out.println(damaged.isEmpty() ? "OK: " + snapshot.sections().size() + " sections verified."
+                        : "DAMAGED: " + damaged.size() + " of " + snapshot.sections().size() + " sections.");
+                if (!damaged.isEmpty()) {
+                    System.exit(2);
+                }
+            }
+        } else if (command.equals("inspect") && args.length == 2) {
+            try (Reader snapshot = open(Paths.get(args[1]))) {
+                System.out.printf("%s: version %d, %d bytes%n", snapshot.file(), VERSION, snapshot.size());
+                for (Map.Entry<String, String> entry : new TreeMap<>(snapshot.meta()).entrySet()) {
+                    System.out.println("  " + entry.getKey() + " = " + entry.getValue());
+                }
+                for (Section section : snapshot.sections()) {
+                    System.out.println("  " + section);
+                }
+            }
+        } else {
+            System.err.println("Usage: EngineSnapshot build <dataset> <word vectors> <output" + EXTENSION + ">");
+            System.err.println("       EngineSnapshot verify <snapshot" + EXTENSION + ">");
+            System.err.println("       EngineSnapshot inspect <snapshot" + EXTENSION + ">");
+            System.exit(1);
+        }
+    }
+}
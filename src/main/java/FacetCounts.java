@@ -0,0 +1,174 @@
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// How many papers of a result set have each year, venue and author. Shards count their
+// matches with collector(), which reads doc values only, and the engine merges the shards'
+// counts and keeps the top values of each dimension.
+public class FacetCounts {
+    public enum Dimension {
+        YEAR, VENUE, AUTHOR
+    }
+
+    private final EnumMap<Dimension, Map<String, Integer>> counts = new EnumMap<>(Dimension.class);
+    private long papers;
+
+    public FacetCounts() {
+        for (Dimension dimension : Dimension.values()) {
+            counts.put(dimension, new HashMap<>());
+        }
+    }
+
+    // Papers counted, whether or not they have a value in every dimension
+    public long getPapers() {
+        return papers;
+    }
+
+    // Values of the dimension with their counts, most frequent first (ties by value)
+    public Map<String, Integer> get(Dimension dimension) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.get(dimension).entrySet());
+        entries.sort((a, b) -> a.getValue().equals(b.getValue())
+                ? a.getKey().compareTo(b.getKey()) : Integer.compare(b.getValue(), a.getValue()));
+        Map<String, Integer> sorted = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(sorted);
+    }
+
+    // Distinct values over all dimensions
+    public int valueCount() {
+        int values = 0;
+        for (Map<String, Integer> dimension : counts.values()) {
+            values += dimension.size();
+        }
+        return values;
+    }
+
+    public void add(Dimension dimension, String value, int count) {
+        if (value != null && !value.isEmpty() && count > 0) {
+            counts.get(dimension).merge(value, count, Integer::sum);
+        }
+    }
+
+    // Counts one paper of the store, for results that did not come from Lucene
+    public void addPaper(PaperStore store, int ordinal) {
+        papers++;
+        Integer year = SemanticClusterSearchEngine.yearValue(store.year(ordinal));
+        if (year != null) {
+            add(Dimension.YEAR, year.toString(), 1);
+        }
+        add(Dimension.VENUE, store.venue(ordinal), 1);
+        for (String author : store.authors(ordinal)) {
+            add(Dimension.AUTHOR, author, 1);
+        }
+    }
+
+    public void merge(FacetCounts other) {
+        papers += other.papers;
+        for (Dimension dimension : Dimension.values()) {
+            for (Map.Entry<String, Integer> entry : other.counts.get(dimension).entrySet()) {
+                add(dimension, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // A copy keeping only the limit most frequent values of each dimension
+    public FacetCounts top(int limit) {
+        FacetCounts top = new FacetCounts();
+        top.papers = papers;
+        for (Dimension dimension : Dimension.values()) {
+            int kept = 0;
+            for (Map.Entry<String, Integer> entry : get(dimension).entrySet()) {
+                if (kept++ == limit) {
+                    break;
+                }
+                top.counts.get(dimension).put(entry.getKey(), entry.getValue());
+            }
+        }
+        return top;
+    }
+
+    // Counts every document it collects into this instance. Venue and author values are
+    // counted by segment ordinal and resolved to strings once per segment, so the per-document
+    // cost is a few doc values reads. Call finish() after the search.
+    public Collector collector() {
+        return new Collector();
+    }
+
+    public class Collector extends SimpleCollector {
+        private final Map<Integer, int[]> yearCounts = new HashMap<>();
+        private NumericDocValues years;
+        private SortedDocValues venues;
+        private SortedSetDocValues authors;
+        private int[] venueCounts = new int[0];
+        private int[] authorCounts = new int[0];
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            flushSegment();
+            years = DocValues.getNumeric(context.reader(), SemanticClusterSearchEngine.YEAR_FIELD);
+            venues = DocValues.getSorted(context.reader(), SemanticClusterSearchEngine.VENUE_FIELD);
+            authors = DocValues.getSortedSet(context.reader(), SemanticClusterSearchEngine.AUTHORS_FIELD);
+            venueCounts = new int[venues.getValueCount()];
+            authorCounts = new int[(int) authors.getValueCount()];
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            papers++;
+            if (years.advanceExact(doc)) {
+                yearCounts.computeIfAbsent((int) years.longValue(), year -> new int[1])[0]++;
+            }
+            if (venues.advanceExact(doc)) {
+                venueCounts[venues.ordValue()]++;
+            }
+            if (authors.advanceExact(doc)) {
+                for (long ord = authors.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = authors.nextOrd()) {
+                    authorCounts[(int) ord]++;
+                }
+            }
+        }
+
+        private void flushSegment() throws IOException {
+            for (int ord = 0; ord < venueCounts.length; ord++) {
+                if (venueCounts[ord] > 0) {
+                    add(Dimension.VENUE, venues.lookupOrd(ord).utf8ToString(), venueCounts[ord]);
+                }
+            }
+            for (int ord = 0; ord < authorCounts.length; ord++) {
+                if (authorCounts[ord] > 0) {
+                    add(Dimension.AUTHOR, authors.lookupOrd(ord).utf8ToString(), authorCounts[ord]);
+                }
+            }
+        }
+
+        public void finish() throws IOException {
+            flushSegment();
+            venueCounts = new int[0];
+            authorCounts = new int[0];
+            for (Map.Entry<Integer, int[]> entry : yearCounts.entrySet()) {
+                add(Dimension.YEAR, entry.getKey().toString(), entry.getValue()[0]);
+            }
+            yearCounts.clear();
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+}
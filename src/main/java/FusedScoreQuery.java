@@ -0,0 +1,146 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.DoubleValues;
+import org.apache.lucene.search.DoubleValuesSource;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.Objects;
+
+// Scores the documents matching a query by a FusedScoreSource, so the top hits Lucene collects
+// are already the top hits under the fused ranking. Unlike FunctionScoreQuery, which in Lucene 8
+// always scores every match, this passes score bounds through to the wrapped query: the fused
+// score is at most lexical weight * lexical score + maxBonus(), so once the collector has
+// enough hits, a minimum competitive fused score becomes a minimum lexical score and the
+// wrapped query can skip whole blocks of documents (block-max WAND).
+public class FusedScoreQuery extends Query {
+    private final Query in;
+    private final FusedScoreSource source;
+
+    public FusedScoreQuery(Query in, FusedScoreSource source) {
+        this.in = in;
+        this.source = source;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = in.rewrite(reader);
+        return rewritten == in ? this : new FusedScoreQuery(rewritten, source);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        // Bounds are only sound with a positive lexical weight; otherwise every match is scored
+        boolean bounded = scoreMode == ScoreMode.TOP_SCORES && source.weights().lexical > 0;
+        ScoreMode innerMode = bounded ? ScoreMode.TOP_SCORES
+                : source.needsScores() ? ScoreMode.COMPLETE : ScoreMode.COMPLETE_NO_SCORES;
+        Weight inner = in.createWeight(searcher, innerMode, 1f);
+        double lexicalWeight = source.weights().lexical;
+        double maxBonus = source.maxBonus();
+
+        return new FilterWeight(this, inner) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer innerScorer = inner.scorer(context);
+                if (innerScorer == null) {
+                    return null;
+                }
+                DoubleValues values = source.getValues(context, DoubleValuesSource.fromScorer(innerScorer));
+                return new Scorer(this) {
+                    @Override
+                    public int docID() {
+                        return innerScorer.docID();
+                    }
+
+                    @Override
+                    public DocIdSetIterator iterator() {
+                        return innerScorer.iterator();
+                    }
+
+                    @Override
+                    public TwoPhaseIterator twoPhaseIterator() {
+                        return innerScorer.twoPhaseIterator();
+                    }
+
+                    @Override
+                    public float score() throws IOException {
+                        return values.advanceExact(docID()) ? (float) values.doubleValue() : 0f;
+                    }
+
+                    @Override
+                    public int advanceShallow(int target) throws IOException {
+                        return innerScorer.advanceShallow(target);
+                    }
+
+                    @Override
+                    public float getMaxScore(int upTo) throws IOException {
+                        if (!bounded) {
+                            return Float.POSITIVE_INFINITY;
+                        }
+                        return Math.nextUp((float) (lexicalWeight * innerScorer.getMaxScore(upTo) + maxBonus));
+                    }
+
+                    @Override
+                    public void setMinCompetitiveScore(float minScore) throws IOException {
+                        if (bounded) {
+                            // Rounded down so float error never skips a competitive document
+                            float lexicalMin = Math.nextDown((float) ((minScore - maxBonus) / lexicalWeight));
+                            if (lexicalMin > 0) {
+                                innerScorer.setMinCompetitiveScore(lexicalMin);
+                            }
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+                Explanation lexical = inner.explain(context, doc);
+                if (!lexical.isMatch()) {
+                    return lexical;
+                }
+                Scorer scorer = scorer(context);
+                if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                    return Explanation.noMatch("no fused score", lexical);
+                }
+                return Explanation.match(scorer.score(), source.toString() + ", computed from:", lexical);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        in.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+    }
+
+    @Override
+    public String toString(String field) {
+        return "fused(" + in.toString(field) + ", " + source.weights() + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) && in.equals(((FusedScoreQuery) other).in)
+                && source.equals(((FusedScoreQuery) other).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), in, source);
+    }
+}
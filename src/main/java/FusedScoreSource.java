@@ -0,0 +1,114 @@
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DoubleValues;
+import org.apache.lucene.search.DoubleValuesSource;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+// The engine's fused ranking score as a Lucene value source:
+//   lexical * lexical score + semantic * cosine(title, query) + pageRank * PageRank
+// The only per-document input read from the index is the paper ordinal doc value. It selects
+// the title embedding row in the in-memory EmbeddingMatrix and the raw PageRank in the engine's
+// current PageRank column. The ordinal lookup gives the exact normalised vector, so there is
+// no need to store a quantised copy of every embedding in the index as well, and PageRank can
+// be recomputed as the corpus changes without rewriting every document.
+public class FusedScoreSource extends DoubleValuesSource {
+    private final SemanticClusterSearchEngine.RankingWeights weights;
+    private final EmbeddingMatrix embeddings;
+    private final float[] queryVector;
+    private final double[] pageRanks;
+    private final double maxPageRank;
+
+    // pageRanks holds PageRank by ordinal (ordinals past its end score 0) and maxPageRank is
+    // an upper bound on its values, used for maxBonus()
+    public FusedScoreSource(SemanticClusterSearchEngine.RankingWeights weights, EmbeddingMatrix embeddings,
+                            float[] queryVector, double[] pageRanks, double maxPageRank) {
+        this.weights = weights;
+        this.embeddings = embeddings;
+        this.queryVector = queryVector;
+        this.pageRanks = pageRanks;
+        this.maxPageRank = maxPageRank;
+    }
+
+    public SemanticClusterSearchEngine.RankingWeights weights() {
+        return weights;
+    }
+
+    // Largest possible contribution of the non-lexical terms (cosine is at most 1), so a
+    // document's fused score never exceeds lexical weight * lexical score + maxBonus()
+    public double maxBonus() {
+        return weights.semantic + weights.pageRank * maxPageRank;
+    }
+
+    @Override
+    public DoubleValues getValues(LeafReaderContext ctx, DoubleValues scores) throws IOException {
+        NumericDocValues ordinals = DocValues.getNumeric(ctx.reader(), SemanticClusterSearchEngine.ORDINAL_FIELD);
+        return new DoubleValues() {
+            private double value;
+
+            @Override
+            public double doubleValue() {
+                return value;
+            }
+
+            @Override
+            public boolean advanceExact(int doc) throws IOException {
+                double lexical = scores != null && scores.advanceExact(doc) ? scores.doubleValue() : 0;
+                double semantic = 0;
+                double pageRank = 0;
+                if (ordinals.advanceExact(doc)) {
+                    int ordinal = (int) ordinals.longValue();
+                    semantic = weights.semantic != 0 ? embeddings.dot(ordinal, queryVector) : 0;
+                    pageRank = ordinal < pageRanks.length ? pageRanks[ordinal] : 0;
+                }
+                value = weights.combine(lexical, semantic, pageRank);
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public boolean needsScores() {
+        return weights.lexical != 0;
+    }
+
+    @Override
+    public DoubleValuesSource rewrite(IndexSearcher reader) {
+        return this;
+    }
+
+    // Depends on the query vector, the in-memory embeddings and PageRank, not just the segment
+    @Override
+    public boolean isCacheable(LeafReaderContext ctx) {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FusedScoreSource)) {
+            return false;
+        }
+        FusedScoreSource other = (FusedScoreSource) o;
+        return weights.equals(other.weights) && embeddings == other.embeddings
+                && Arrays.equals(queryVector, other.queryVector) && pageRanks == other.pageRanks
+                && maxPageRank == other.maxPageRank;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(weights, System.identityHashCode(embeddings), Arrays.hashCode(queryVector),
+                System.identityHashCode(pageRanks), maxPageRank);
+    }
+
+    @Override
+    public String toString() {
+        return "fused(" + weights + ")";
+    }
+}
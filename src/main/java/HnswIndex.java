@@ -0,0 +1,582 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Hierarchical Navigable Small World graph (Malkov & Yashunin) over the rows of an
+// EmbeddingMatrix, for approximate top-k cosine search. Rows are normalised, so distance is
+// 1 - dot. Nodes are paper ordinals; the graph is built in parallel with per-node locks and
+// can be saved to and loaded from disk. Rows appended to the matrix after the graph was
+// built are not linked into it: search() scores them exhaustively and merges them in, until
+// the owner rebuilds the graph.
+public class HnswIndex {
+    private static final int MAGIC = 0x484e5357; // "HNSW"
+    private static final int VERSION = 1;
+    private static final long SEED = 42L;
+
+    private final EmbeddingMatrix vectors;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    // neighbors[node][level] = {count, id, id, ...}; guarded by the monitor of neighbors[node]
+    private final int[][][] neighbors;
+    private final Object entryLock = new Object();
+    // Set once the graph is complete; from then on neighbour lists are read without locking
+    private volatile boolean frozen;
+    private volatile int entryPoint = -1;
+    private volatile int maxLevel = -1;
+
+    private final ThreadLocal<Visited> visited;
+
+    public HnswIndex(EmbeddingMatrix vectors, int m, int efConstruction) {
+        if (m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("M must be at least 2 and efConstruction positive");
+        }
+        this.vectors = vectors;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        this.neighbors = new int[vectors.rows()][][];
+        this.visited = ThreadLocal.withInitial(() -> new Visited(neighbors.length));
+    }
+
+    public int size() {
+        return neighbors.length;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    // Top-k hits, best first
+    public static class Result {
+        final int[] nodes;
+        final float[] scores;
+
+        Result(int[] nodes, float[] scores) {
+            this.nodes = nodes;
+            this.scores = scores;
+        }
+
+        public int size() {
+            return nodes.length;
+        }
+
+        public int node(int i) {
+            return nodes[i];
+        }
+
+        // Cosine similarity to the query
+        public float score(int i) {
+            return scores[i];
+        }
+    }
+
+    // Inserts every row of the matrix, using up to parallelism threads
+    public void build(int parallelism) {
+        int n = neighbors.length;
+        if (n == 0) {
+            return;
+        }
+        // Levels are drawn up front from a fixed seed so the graph shape is reproducible
+        Random random = new Random(SEED);
+        int[] levels = new int[n];
+        for (int node = 0; node < n; node++) {
+            levels[node] = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            neighbors[node] = new int[levels[node] + 1][];
+            for (int level = 0; level <= levels[node]; level++) {
+                neighbors[node][level] = new int[(level == 0 ? maxM0 : m) + 1];
+            }
+        }
+
+        insert(0, levels[0]);
+        if (parallelism <= 1) {
+            for (int node = 1; node < n; node++) {
+                insert(node, levels[node]);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(1, n).parallel().forEach(node -> insert(node, levels[node]))).join();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        frozen = true;
+    }
+
+    private void insert(int node, int level) {
+        int entry;
+        int top;
+        synchronized (entryLock) {
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+            entry = entryPoint;
+            top = maxLevel;
+            // A node that raises the top level holds the entry lock for its whole insertion,
+            // as in hnswlib, so concurrent inserts never start from a half-linked entry point
+            if (level > top) {
+                insertBelow(node, level, entry, top);
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+        }
+        insertBelow(node, level, entry, top);
+    }
+
+    private void insertBelow(int node, int level, int entry, int topLevel) {
+        float[] query = new float[vectors.dimension()];
+        vectors.copyRow(node, query);
+
+        int current = entry;
+        float currentDistance = distance(current, query);
+        for (int l = topLevel; l > level; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] list = neighborsOf(current, l);
+                for (int i = 1; i <= list[0]; i++) {
+                    int candidate = list[i];
+                    float d = distance(candidate, query);
+                    if (d < currentDistance) {
+                        currentDistance = d;
+                        current = candidate;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        NodeHeap entryPoints = NodeHeap.min(1);
+        entryPoints.push(current, currentDistance);
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            NodeHeap found = searchLayer(query, entryPoints, efConstruction, l);
+            int[] selected = selectNeighbors(found, m);
+            int[] own = neighbors[node][l];
+            synchronized (neighbors[node]) {
+                own[0] = selected.length;
+                System.arraycopy(selected, 0, own, 1, selected.length);
+            }
+            for (int neighbor : selected) {
+                link(neighbor, node, l);
+            }
+            entryPoints = found;
+        }
+    }
+
+    // Adds node to neighbor's list at level, shrinking it with the selection heuristic when full
+    private void link(int neighbor, int node, int level) {
+        int capacity = level == 0 ? maxM0 : m;
+        synchronized (neighbors[neighbor]) {
+            int[] list = neighbors[neighbor][level];
+            int count = list[0];
+            for (int i = 1; i <= count; i++) {
+                if (list[i] == node) {
+                    return;
+                }
+            }
+            if (count < capacity) {
+                list[count + 1] = node;
+                list[0] = count + 1;
+                return;
+            }
+            NodeHeap candidates = NodeHeap.max(count + 1);
+            for (int i = 1; i <= count; i++) {
+                candidates.push(list[i], distance(neighbor, list[i]));
+            }
+            candidates.push(node, distance(neighbor, node));
+            int[] kept = selectNeighbors(candidates, capacity);
+            list[0] = kept.length;
+            System.arraycopy(kept, 0, list, 1, kept.length);
+        }
+    }
+
+    private static final int[] NO_NEIGHBORS = {0};
+
+    // Neighbour list in {count, id, id, ...} form: a private copy while the graph is being
+    // built, the live list once it is frozen
+    private int[] neighborsOf(int node, int level) {
+        int[][] levels = neighbors[node];
+        if (level >= levels.length) {
+            return NO_NEIGHBORS;
+        }
+        if (frozen) {
+            return levels[level];
+        }
+        synchronized (levels) {
+            int[] list = levels[level];
+            return Arrays.copyOf(list, list[0] + 1);
+        }
+    }
+
+    // Greedy beam search on one layer; returns the ef closest nodes found as a max-heap
+    private NodeHeap searchLayer(float[] query, NodeHeap entryPoints, int ef, int level) {
+        Visited seen = visited.get();
+        seen.reset();
+        NodeHeap candidates = NodeHeap.min(ef * 2);
+        NodeHeap results = NodeHeap.max(ef + 1);
+        for (int i = 0; i < entryPoints.size(); i++) {
+            int node = entryPoints.node(i);
+            float d = entryPoints.distance(i);
+            seen.mark(node);
+            candidates.push(node, d);
+            results.push(node, d);
+        }
+        while (results.size() > ef) {
+            results.pop();
+        }
+
+        while (candidates.size() > 0) {
+            float closest = candidates.topDistance();
+            int current = candidates.pop();
+            if (results.size() >= ef && closest > results.topDistance()) {
+                break;
+            }
+            int[] list = neighborsOf(current, level);
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbor = list[i];
+                if (!seen.mark(neighbor)) {
+                    continue;
+                }
+                float d = distance(neighbor, query);
+                if (results.size() < ef || d < results.topDistance()) {
+                    candidates.push(neighbor, d);
+                    results.push(neighbor, d);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // Heuristic selection: keep a candidate only if it is closer to the base than to every
+    // neighbour already kept, then top up with the closest pruned ones. The heap is left intact.
+    private int[] selectNeighbors(NodeHeap candidates, int limit) {
+        int size = candidates.size();
+        // Distances are non-negative (clamped against rounding), so their int bits sort like
+        // the floats themselves; the node id rides in the low half
+        long[] keyed = new long[size];
+        for (int i = 0; i < size; i++) {
+            float d = Math.max(0f, candidates.distance(i));
+            keyed[i] = ((long) Float.floatToIntBits(d) << 32) | candidates.node(i);
+        }
+        Arrays.sort(keyed);
+        int[] ordered = new int[size];
+        float[] distances = new float[size];
+        for (int i = 0; i < size; i++) {
+            ordered[i] = (int) keyed[i];
+            distances[i] = Float.intBitsToFloat((int) (keyed[i] >>> 32));
+        }
+
+        int[] selected = new int[Math.min(limit, size)];
+        boolean[] taken = new boolean[size];
+        int count = 0;
+        for (int i = 0; i < size && count < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(ordered[i], selected[j]) < distances[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = ordered[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < size && count < selected.length; i++) {
+            if (!taken[i]) {
+                selected[count++] = ordered[i];
+            }
+        }
+        return selected;
+    }
+
+    // Rows of the matrix that the graph does not cover yet
+    public int unindexedRows() {
+        return Math.max(0, vectors.rows() - neighbors.length);
+    }
+
+    // Approximate top-k by cosine similarity to a normalised query
+    public Result search(float[] query, int k, int ef) {
+        int entry;
+        int top;
+        synchronized (entryLock) {
+            entry = entryPoint;
+            top = maxLevel;
+        }
+        if (k <= 0) {
+            return new Result(new int[0], new float[0]);
+        }
+        if (entry < 0) {
+            return collect(scanUnindexed(query, NodeHeap.max(k + 1), k));
+        }
+
+        int current = entry;
+        float currentDistance = distance(current, query);
+        for (int l = top; l > 0; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] list = neighborsOf(current, l);
+                for (int i = 1; i <= list[0]; i++) {
+                    int candidate = list[i];
+                    float d = distance(candidate, query);
+                    if (d < currentDistance) {
+                        currentDistance = d;
+                        current = candidate;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        NodeHeap entryPoints = NodeHeap.min(1);
+        entryPoints.push(current, currentDistance);
+        NodeHeap found = searchLayer(query, entryPoints, Math.max(ef, k), 0);
+        while (found.size() > k) {
+            found.pop();
+        }
+        return collect(scanUnindexed(query, found, k));
+    }
+
+    // Adds the rows appended since the graph was built to a max-heap of the best k
+    private NodeHeap scanUnindexed(float[] query, NodeHeap found, int k) {
+        for (int node = neighbors.length, rows = vectors.rows(); node < rows; node++) {
+            float d = distance(node, query);
+            if (found.size() < k || d < found.topDistance()) {
+                found.push(node, d);
+                if (found.size() > k) {
+                    found.pop();
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Result collect(NodeHeap found) {
+        int size = found.size();
+        int[] nodes = new int[size];
+        float[] scores = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            scores[i] = 1 - found.topDistance();
+            nodes[i] = found.pop();
+        }
+        return new Result(nodes, scores);
+    }
+
+    private float distance(int a, int b) {
+        return 1 - vectors.dot(a, b);
+    }
+
+    private float distance(int node, float[] query) {
+        return 1 - vectors.dot(node, query);
+    }
+
+    // Writes the graph to a temporary file and moves it into place, tagged with a caller
+    // supplied string that load() can check, e.g. the dataset fingerprint and a hash of what each
+    // node id stands for, since nodes are only rows of the matrix
+    public void save(Path path, String tag) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(tag == null ? "" : tag);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(neighbors.length);
+            out.writeInt(vectors.dimension());
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int[][] levels : neighbors) {
+                out.writeInt(levels.length);
+                for (int[] list : levels) {
+                    out.writeInt(list[0]);
+                    for (int i = 1; i <= list[0]; i++) {
+                        out.writeInt(list[i]);
+                    }
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads a saved graph over the given vectors, or returns null if the file is missing, was
+    // written for a different tag, or does not match the matrix shape
+    public static HnswIndex load(Path path, EmbeddingMatrix vectors, String tag) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!in.readUTF().equals(tag == null ? "" : tag)) {
+                return null;
+            }
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            int nodeCount = in.readInt();
+            int dimension = in.readInt();
+            if (nodeCount != vectors.rows() || dimension != vectors.dimension()) {
+                return null;
+            }
+
+            HnswIndex index = new HnswIndex(vectors, m, efConstruction);
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            for (int node = 0; node < nodeCount; node++) {
+                int levelCount = in.readInt();
+                index.neighbors[node] = new int[levelCount][];
+                for (int level = 0; level < levelCount; level++) {
+                    int count = in.readInt();
+                    int[] list = new int[(level == 0 ? index.maxM0 : m) + 1];
+                    list[0] = count;
+                    for (int i = 1; i <= count; i++) {
+                        list[i] = in.readInt();
+                    }
+                    index.neighbors[node][level] = list;
+                }
+            }
+            index.frozen = true;
+            return index;
+        }
+    }
+
+    // Visited marks with a generation counter, so resetting is O(1)
+    private static class Visited {
+        private final int[] marks;
+        private int generation;
+
+        Visited(int size) {
+            marks = new int[size];
+        }
+
+        void reset() {
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        // Returns true if the node had not been seen since the last reset
+        boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    // Binary heap of (node, distance) on primitive arrays; min- or max-ordered by distance
+    private static class NodeHeap {
+        private final boolean max;
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+
+        private NodeHeap(boolean max, int capacity) {
+            this.max = max;
+            this.nodes = new int[Math.max(1, capacity)];
+            this.distances = new float[nodes.length];
+        }
+
+        static NodeHeap min(int capacity) {
+            return new NodeHeap(false, capacity);
+        }
+
+        static NodeHeap max(int capacity) {
+            return new NodeHeap(true, capacity);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int node(int i) {
+            return nodes[i];
+        }
+
+        float distance(int i) {
+            return distances[i];
+        }
+
+        float topDistance() {
+            return distances[0];
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float distance = distances[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && above(distances[child + 1], distances[child])) {
+                        child++;
+                    }
+                    if (!above(distances[child], distance)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                distances[i] = distance;
+            }
+            return top;
+        }
+    }
+}
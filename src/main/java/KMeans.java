@@ -0,0 +1,368 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Spherical k-means over L2-normalised points stored row-major in one float[]. Distance is
+// cosine distance (1 - dot), centroids are renormalised after every update, seeding is
+// k-means++ from a fixed seed so the same input always gives the same clusters, and
+// iteration stops early once no centroid moves more than the tolerance. Large inputs can use
+// mini-batch updates and parallel assignment.
+public class KMeans {
+    // Below this many point-centroid products per pass, parallel assignment costs more than it saves
+    private static final long PARALLEL_THRESHOLD = 1L << 18;
+    private static final int CHUNK_SIZE = 256;
+
+    private final long seed;
+    private final int maxIterations;
+    private final double tolerance;
+    private final int batchSize;
+    // Long-lived pool owned by the caller, shared by every run; null assigns on the calling thread
+    private final ForkJoinPool pool;
+
+    // batchSize <= 0 (or >= the point count) runs full-batch Lloyd iterations
+    public KMeans(long seed, int maxIterations, double tolerance, int batchSize, ForkJoinPool pool) {
+        this.seed = seed;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.batchSize = batchSize;
+        this.pool = pool;
+    }
+
+    public static class Result {
+        final int k;
+        final int[] assignments;
+        final float[] centroids;
+        final int iterations;
+        final double inertia;
+
+        Result(int k, int[] assignments, float[] centroids, int iterations, double inertia) {
+            this.k = k;
+            this.assignments = assignments;
+            this.centroids = centroids;
+            this.iterations = iterations;
+            this.inertia = inertia;
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        // Cluster of each point, in input order
+        public int[] getAssignments() {
+            return assignments;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        // Sum of cosine distances from each point to its centroid
+        public double getInertia() {
+            return inertia;
+        }
+    }
+
+    public Result cluster(float[] points, int count, int dimension, int k) {
+        k = Math.max(1, Math.min(k, count));
+        if (count == 0) {
+            return new Result(0, new int[0], new float[0], 0, 0);
+        }
+
+        Random random = new Random(seed);
+        float[] centroids = seed(points, count, dimension, k, random);
+        int[] assignments = new int[count];
+        float[] distances = new float[count];
+
+        int iteration = 0;
+        if (batchSize > 0 && batchSize < count) {
+            iteration = miniBatch(points, count, dimension, k, centroids, random);
+        } else {
+            float[] sums = new float[k * dimension];
+            while (iteration < maxIterations) {
+                iteration++;
+                assign(points, count, dimension, centroids, k, assignments, distances);
+                Arrays.fill(sums, 0);
+                for (int p = 0; p < count; p++) {
+                    addRow(points, p, sums, assignments[p], dimension, 1f);
+                }
+                reseedEmpty(points, count, dimension, k, sums, assignments, distances);
+                if (normalizeAndMove(sums, centroids, k, dimension) < tolerance) {
+                    break;
+                }
+            }
+        }
+
+        double inertia = assign(points, count, dimension, centroids, k, assignments, distances);
+        return new Result(k, assignments, centroids, iteration, inertia);
+    }
+
+    // Tries k = 2 .. maxK on a sample of at most sampleSize points, keeps the k with the best
+    // mean silhouette, then clusters all points with it
+    public Result clusterAutoK(float[] points, int count, int dimension, int maxK, int sampleSize) {
+        maxK = Math.min(maxK, count - 1);
+        if (maxK < 2) {
+            return cluster(points, count, dimension, 1);
+        }
+
+        float[] sample = points;
+        int sampleCount = count;
+        if (count > sampleSize) {
+            // Deterministic sample: a seeded partial Fisher-Yates shuffle of point indices
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Random random = new Random(seed);
+            sampleCount = sampleSize;
+            sample = new float[sampleCount * dimension];
+            for (int i = 0; i < sampleCount; i++) {
+                int j = i + random.nextInt(count - i);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+                System.arraycopy(points, order[i] * dimension, sample, i * dimension, dimension);
+            }
+        }
+
+        // Pairwise distances do not depend on k, so every trial shares one matrix
+        float[] distances = distances(sample, sampleCount, dimension);
+        int bestK = 2;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int k = 2; k <= Math.min(maxK, sampleCount - 1); k++) {
+            Result trial = cluster(sample, sampleCount, dimension, k);
+            double score = silhouette(distances, sampleCount, trial.assignments, k);
+            if (score > bestScore) {
+                bestScore = score;
+                bestK = k;
+            }
+        }
+        return cluster(points, count, dimension, bestK);
+    }
+
+    // count x count cosine distances, row-major; each pair's dot product is computed once
+    static float[] distances(float[] points, int count, int dimension) {
+        float[] distances = new float[count * count];
+        for (int p = 0; p < count; p++) {
+            for (int q = p + 1; q < count; q++) {
+                float distance = 1 - dot(points, p, points, q, dimension);
+                distances[p * count + q] = distance;
+                distances[q * count + p] = distance;
+            }
+        }
+        return distances;
+    }
+
+    // Mean silhouette over a distances() matrix; O(n^2), so callers pass a sample
+    static double silhouette(float[] distances, int count, int[] assignments, int k) {
+        double[] perCluster = new double[k];
+        int[] sizes = new int[k];
+        for (int p = 0; p < count; p++) {
+            sizes[assignments[p]]++;
+        }
+        double total = 0;
+        for (int p = 0; p < count; p++) {
+            Arrays.fill(perCluster, 0);
+            for (int q = 0, row = p * count; q < count; q++) {
+                if (q != p) {
+                    perCluster[assignments[q]] += distances[row + q];
+                }
+            }
+            int own = assignments[p];
+            if (sizes[own] <= 1) {
+                continue; // silhouette of a singleton is 0
+            }
+            double a = perCluster[own] / (sizes[own] - 1);
+            double b = Double.MAX_VALUE;
+            for (int c = 0; c < k; c++) {
+                if (c != own && sizes[c] > 0) {
+                    b = Math.min(b, perCluster[c] / sizes[c]);
+                }
+            }
+            if (b != Double.MAX_VALUE) {
+                total += (b - a) / Math.max(a, b);
+            }
+        }
+        return total / count;
+    }
+
+    // k-means++: each further centroid is drawn with probability proportional to its squared
+    // distance from the nearest centroid chosen so far
+    private float[] seed(float[] points, int count, int dimension, int k, Random random) {
+        float[] centroids = new float[k * dimension];
+        int first = random.nextInt(count);
+        System.arraycopy(points, first * dimension, centroids, 0, dimension);
+
+        double[] nearest = new double[count];
+        for (int p = 0; p < count; p++) {
+            nearest[p] = squared(1 - dot(points, p, centroids, 0, dimension));
+        }
+        for (int c = 1; c < k; c++) {
+            double total = 0;
+            for (double d : nearest) {
+                total += d;
+            }
+            int chosen = count - 1;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                for (int p = 0; p < count; p++) {
+                    target -= nearest[p];
+                    if (target <= 0) {
+                        chosen = p;
+                        break;
+                    }
+                }
+            } else {
+                chosen = random.nextInt(count);
+            }
+            System.arraycopy(points, chosen * dimension, centroids, c * dimension, dimension);
+            for (int p = 0; p < count; p++) {
+                nearest[p] = Math.min(nearest[p], squared(1 - dot(points, p, centroids, c, dimension)));
+            }
+        }
+        return centroids;
+    }
+
+    // Sculley's mini-batch k-means: per-centroid learning rate 1 / (points seen so far)
+    private int miniBatch(float[] points, int count, int dimension, int k, float[] centroids, Random random) {
+        int[] seen = new int[k];
+        int[] batch = new int[batchSize];
+        int[] batchAssignments = new int[batchSize];
+        float[] previous = new float[centroids.length];
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            System.arraycopy(centroids, 0, previous, 0, centroids.length);
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = random.nextInt(count);
+                batchAssignments[i] = nearest(points, batch[i], centroids, k, dimension);
+            }
+            for (int i = 0; i < batchSize; i++) {
+                int c = batchAssignments[i];
+                seen[c]++;
+                float rate = 1f / seen[c];
+                int base = c * dimension;
+                int offset = batch[i] * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    centroids[base + d] += rate * (points[offset + d] - centroids[base + d]);
+                }
+            }
+            // Renormalises the updated centroids and measures how far they moved from previous
+            if (normalizeAndMove(centroids, previous, k, dimension) < tolerance) {
+                break;
+            }
+        }
+        return iteration;
+    }
+
+    // Assigns every point to its nearest centroid; returns the total distance
+    private double assign(float[] points, int count, int dimension, float[] centroids, int k,
+                          int[] assignments, float[] distances) {
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (pool == null || pool.getParallelism() == 1 || (long) count * k * dimension < PARALLEL_THRESHOLD) {
+            double total = 0;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                total += assignChunk(points, count, dimension, centroids, k, assignments, distances, chunk);
+            }
+            return total;
+        }
+        return pool.submit(() -> IntStream.range(0, chunks).parallel()
+                .mapToDouble(chunk -> assignChunk(points, count, dimension, centroids, k, assignments, distances, chunk))
+                .sum()).join();
+    }
+
+    private static double assignChunk(float[] points, int count, int dimension, float[] centroids, int k,
+                                      int[] assignments, float[] distances, int chunk) {
+        double total = 0;
+        for (int p = chunk * CHUNK_SIZE, end = Math.min(count, p + CHUNK_SIZE); p < end; p++) {
+            int best = nearest(points, p, centroids, k, dimension);
+            assignments[p] = best;
+            distances[p] = 1 - dot(points, p, centroids, best, dimension);
+            total += distances[p];
+        }
+        return total;
+    }
+
+    private static int nearest(float[] points, int p, float[] centroids, int k, int dimension) {
+        int best = 0;
+        float bestSimilarity = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            float similarity = dot(points, p, centroids, c, dimension);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // A cluster that lost all its points takes over the point farthest from its own centroid
+    private static void reseedEmpty(float[] points, int count, int dimension, int k, float[] sums,
+                                    int[] assignments, float[] distances) {
+        int[] sizes = new int[k];
+        for (int p = 0; p < count; p++) {
+            sizes[assignments[p]]++;
+        }
+        for (int c = 0; c < k; c++) {
+            if (sizes[c] > 0) {
+                continue;
+            }
+            int farthest = -1;
+            for (int p = 0; p < count; p++) {
+                if (sizes[assignments[p]] > 1 && (farthest < 0 || distances[p] > distances[farthest])) {
+                    farthest = p;
+                }
+            }
+            if (farthest < 0) {
+                return;
+            }
+            addRow(points, farthest, sums, assignments[farthest], dimension, -1f);
+            sizes[assignments[farthest]]--;
+            assignments[farthest] = c;
+            distances[farthest] = 0;
+            sizes[c] = 1;
+            addRow(points, farthest, sums, c, dimension, 1f);
+        }
+    }
+
+    // Normalises the new centroids in place, copies them over the old ones and returns the
+    // largest cosine distance any centroid moved
+    private static double normalizeAndMove(float[] next, float[] centroids, int k, int dimension) {
+        double moved = 0;
+        for (int c = 0; c < k; c++) {
+            int base = c * dimension;
+            double norm = 0;
+            for (int d = 0; d < dimension; d++) {
+                norm += next[base + d] * next[base + d];
+            }
+            if (norm == 0) {
+                continue; // keep the old centroid
+            }
+            float scale = (float) (1 / Math.sqrt(norm));
+            double similarity = 0;
+            for (int d = 0; d < dimension; d++) {
+                next[base + d] *= scale;
+                similarity += next[base + d] * centroids[base + d];
+            }
+            moved = Math.max(moved, 1 - similarity);
+            System.arraycopy(next, base, centroids, base, dimension);
+        }
+        return moved;
+    }
+
+    private static void addRow(float[] points, int p, float[] sums, int c, int dimension, float sign) {
+        int offset = p * dimension;
+        int base = c * dimension;
+        for (int d = 0; d < dimension; d++) {
+            sums[base + d] += sign * points[offset + d];
+        }
+    }
+
+    private static float dot(float[] a, int rowA, float[] b, int rowB, int dimension) {
+        return EmbeddingMatrix.dot(a, rowA * dimension, b, rowB * dimension, dimension);
+    }
+
+    private static double squared(double value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,210 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+// A shard in this process: one Lucene index with its own long-lived IndexWriter and a
+// near-real-time SearcherManager on it. The engine routes each paper to a shard by hash of
+// its id and writes through the shard; searches score hits by the fused ranking, reading
+// embeddings and PageRank by ordinal from the engine's shared columns.
+//
+// search() is thread-safe. Writes are serialised by the engine.
+public class LocalShard implements SearchShard {
+    private final int number;
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final EmbeddingMatrix embeddings;
+    private final Supplier<SemanticClusterSearchEngine.PageRankColumn> pageRanks;
+    private final Runnable onRefresh;
+    private volatile SearcherManager searcherManager;
+    // QueryParser is not thread-safe, so each thread keeps its own
+    private final ThreadLocal<QueryParser> queryParser;
+
+    // Opens a writer on the directory, appending to the index in it or, with create, starting
+    // an empty one. onRefresh runs whenever a refresh makes new changes visible.
+    LocalShard(int number, Directory directory, Analyzer analyzer, boolean create, EmbeddingMatrix embeddings,
+               Supplier<SemanticClusterSearchEngine.PageRankColumn> pageRanks, Runnable onRefresh)
+            throws IOException {
+        this.number = number;
+        this.directory = directory;
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(
+                create ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.APPEND));
+        this.embeddings = embeddings;
+        this.pageRanks = pageRanks;
+        this.onRefresh = onRefresh;
+        this.queryParser = ThreadLocal.withInitial(() -> new QueryParser("title", analyzer));
+        this.searcherManager = newSearcherManager(null);
+    }
+
+    // User data of the directory's latest commit, or null if it holds no index
+    static Map<String, String> commitData(Directory directory) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return null;
+        }
+        return SegmentInfos.readLatestCommit(directory).getUserData();
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int numDocs() {
+        return writer.getDocStats().numDocs;
+    }
+
+    private SearcherManager newSearcherManager(Executor executor) throws IOException {
+        SearcherManager manager = new SearcherManager(writer, true, false, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return executor == null ? new IndexSearcher(reader) : new IndexSearcher(reader, executor);
+            }
+        });
+        manager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    onRefresh.run();
+                }
+            }
+        });
+        return manager;
+    }
+
+    // See SemanticClusterSearchEngine.setSearchExecutor
+    void setSearchExecutor(Executor executor) throws IOException {
+        synchronized (this) {
+            SearcherManager previous = searcherManager;
+            searcherManager = newSearcherManager(executor);
+            previous.close();
+        }
+    }
+
+    void deleteAll() throws IOException {
+        writer.deleteAll();
+    }
+
+    void add(Document document) throws IOException {
+        writer.addDocument(document);
+    }
+
+    // Adds the paper's document, replacing any document with the same id
+    void update(String id, Document document) throws IOException {
+        writer.updateDocument(new Term("id", id), document);
+    }
+
+    void delete(String id) throws IOException {
+        writer.deleteDocuments(new Term("id", id));
+    }
+
+    // Recorded with the next commit (or close)
+    void setCommitData(Map<String, String> commitData) {
+        writer.setLiveCommitData(commitData.entrySet());
+    }
+
+    void commit() throws IOException {
+        writer.commit();
+    }
+
+    void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    @Override
+    public Hits search(Request request) throws Exception {
+        SemanticClusterSearchEngine.PageRankColumn ranks = pageRanks.get();
+        Query query = new FusedScoreQuery(request.filter.apply(queryParser.get().parse(request.queryText)),
+                new FusedScoreSource(request.weights, embeddings, request.queryVector, ranks.scores, ranks.max));
+        SearcherManager manager = searcherManager;
+        IndexSearcher searcher = manager.acquire();
+        try {
+            ScoreDoc[] hits = searcher.search(query, request.topN).scoreDocs;
+            int[] ordinals = new int[hits.length];
+            float[] scores = new float[hits.length];
+            hitOrdinals(searcher, hits, ordinals);
+            for (int i = 0; i < hits.length; i++) {
+                scores[i] = hits[i].score;
+            }
+            return new Hits(ordinals, scores);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    @Override
+    public FacetCounts countFacets(Request request) throws Exception {
+        Query query = request.filter.apply(queryParser.get().parse(request.queryText));
+        FacetCounts counts = new FacetCounts();
+        FacetCounts.Collector collector = counts.collector();
+        SearcherManager manager = searcherManager;
+        IndexSearcher searcher = manager.acquire();
+        try {
+            searcher.search(query, collector);
+        } finally {
+            manager.release(searcher);
+        }
+        collector.finish();
+        return counts;
+    }
+
+    // Maps hits to paper ordinals through the ordinal doc values. Hits are visited in doc id
+    // order because doc values iterators only move forward.
+    private static void hitOrdinals(IndexSearcher searcher, ScoreDoc[] hits, int[] ordinals) throws IOException {
+        long[] byDoc = new long[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            byDoc[i] = (long) hits[i].doc << 32 | i;
+        }
+        Arrays.sort(byDoc);
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        NumericDocValues values = null;
+        for (long entry : byDoc) {
+            int doc = (int) (entry >>> 32);
+            int hit = (int) entry;
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                values = DocValues.getNumeric(leaf.reader(), SemanticClusterSearchEngine.ORDINAL_FIELD);
+            }
+            if (!values.advanceExact(doc - leaf.docBase)) {
+                throw new IllegalStateException("Document " + doc + " has no "
+                        + SemanticClusterSearchEngine.ORDINAL_FIELD + " doc value");
+            }
+            ordinals[hit] = (int) values.longValue();
+        }
+    }
+
+    // Commits whatever was written since the last commit, then releases the index
+    @Override
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,228 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Named latency timers, counters and gauges for one engine, readable as a Prometheus text
+// dump or over JMX. Metrics are created on first use, and every operation is safe to call
+// from any number of query threads.
+//
+// Names are Prometheus-style snake case without the prefix; the dump renders timer "search"
+// as <prefix>_search_seconds (a summary with p50/p95/p99, _sum, _count and a _max gauge),
+// counter "docs_fetched" as <prefix>_docs_fetched_total and gauges as <prefix>_<name>.
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final String prefix;
+    private final Map<String, LatencyHistogram> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public Metrics(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void increment(String name, long delta) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    public long counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public void setGauge(String name, double value) {
+        gauges.put(name, () -> value);
+    }
+
+    // Times one query stage by stage. Each stage goes to the timer of the same name, and the
+    // trace keeps the breakdown for the slow-query log. Not thread-safe: one per query.
+    public Trace trace() {
+        return new Trace();
+    }
+
+    public class Trace {
+        private final long startNanos = System.nanoTime();
+        private final List<String> stages = new ArrayList<>(8);
+        private final List<Long> stageNanos = new ArrayList<>(8);
+
+        // Records the time since stageStart under the stage name and returns the current time,
+        // so consecutive stages can chain: t = trace.stage("parse", t)
+        public long stage(String name, long stageStart) {
+            long now = System.nanoTime();
+            timer(name).record(now - stageStart);
+            stages.add(name);
+            stageNanos.add(now - stageStart);
+            return now;
+        }
+
+        public long elapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < stages.size(); i++) {
+                text.append(i == 0 ? "" : ", ").append(stages.get(i))
+                        .append(String.format(Locale.ROOT, " %.2f ms", stageNanos.get(i) / 1e6));
+            }
+            return text.toString();
+        }
+    }
+
+    // Prometheus text exposition format (version 0.0.4)
+    public String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+            String name = prefix + "_" + entry.getKey() + "_seconds";
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(snapshot.percentileNanos(quantile))).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(snapshot.getSumNanos())).append('\n');
+            out.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+            out.append("# TYPE ").append(name).append("_max gauge\n");
+            out.append(name).append("_max ").append(seconds(snapshot.getMaxNanos())).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            String name = prefix + "_" + entry.getKey() + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+            String name = prefix + "_" + entry.getKey();
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(entry.getValue().getAsDouble()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    // Registers the metrics with the platform MBean server under a name unique to this
+    // instance and returns it, for unregister() when the owner closes
+    public ObjectName register(String type) throws Exception {
+        ObjectName name = new ObjectName(type + ":type=Metrics,instance=" + INSTANCES.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+        return name;
+    }
+
+    public static void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (name != null && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            // Nothing useful to do when an MBean is already gone
+        }
+    }
+
+    // Flattens everything into read-only attributes: <timer>_p50_ms / _p95_ms / _p99_ms /
+    // _max_ms / _count, <counter>_total and <gauge>. The attribute set is rebuilt on every
+    // call to getMBeanInfo because metrics appear lazily.
+    private class MBean implements DynamicMBean {
+        private Map<String, Object> values() {
+            Map<String, Object> values = new ConcurrentSkipListMap<>();
+            for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+                LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+                values.put(entry.getKey() + "_p50_ms", snapshot.percentileNanos(0.50) / 1e6);
+                values.put(entry.getKey() + "_p95_ms", snapshot.percentileNanos(0.95) / 1e6);
+                values.put(entry.getKey() + "_p99_ms", snapshot.percentileNanos(0.99) / 1e6);
+                values.put(entry.getKey() + "_max_ms", snapshot.getMaxNanos() / 1e6);
+                values.put(entry.getKey() + "_count", snapshot.getCount());
+            }
+            for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+                values.put(entry.getKey() + "_total", entry.getValue().sum());
+            }
+            for (Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+                values.put(entry.getKey(), entry.getValue().getAsDouble());
+            }
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (actionName.equals("prometheus")) {
+                return prometheus();
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : values().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            MBeanOperationInfo prometheus = new MBeanOperationInfo("prometheus",
+                    "All metrics in Prometheus text format", new MBeanParameterInfo[0],
+                    String.class.getName(), MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "Search engine metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null,
+                    new MBeanOperationInfo[]{prometheus}, null);
+        }
+    }
+}
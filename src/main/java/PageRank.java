@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Power-iteration PageRank over a citation graph whose nodes are dense int ordinals.
+// The graph is held as a CSR in-link adjacency (who cites me) plus out-degrees, so one
+// iteration is a single pass over the edges with no boxing or hashing.
+public class PageRank {
+    // Nodes per parallel work unit; small enough to balance, large enough to amortise scheduling
+    private static final int CHUNK_SIZE = 4096;
+
+    private final double dampingFactor;
+    private final double tolerance;
+    private final int maxIterations;
+    private final int parallelism;
+
+    public PageRank(double dampingFactor, double tolerance, int maxIterations) {
+        this(dampingFactor, tolerance, maxIterations, Runtime.getRuntime().availableProcessors());
+    }
+
+    public PageRank(double dampingFactor, double tolerance, int maxIterations, int parallelism) {
+        if (dampingFactor <= 0 || dampingFactor >= 1) {
+            throw new IllegalArgumentException("dampingFactor must be in (0, 1): " + dampingFactor);
+        }
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("maxIterations must be positive: " + maxIterations);
+        }
+        this.dampingFactor = dampingFactor;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Immutable citation graph in CSR form: the in-links of node v are
+    // inLinks[inOffsets[v] .. inOffsets[v + 1]).
+    public static class Graph {
+        final int nodeCount;
+        final int[] inOffsets;
+        final int[] inLinks;
+        final int[] outDegree;
+
+        private Graph(int nodeCount, int[] inOffsets, int[] inLinks, int[] outDegree) {
+            this.nodeCount = nodeCount;
+            this.inOffsets = inOffsets;
+            this.inLinks = inLinks;
+            this.outDegree = outDegree;
+        }
+
+        public int nodeCount() {
+            return nodeCount;
+        }
+
+        public int edgeCount() {
+            return inLinks.length;
+        }
+
+        // Builds the graph from parallel edge arrays (source cites target). Callers are
+        // expected to have dropped duplicate edges; edges outside [0, nodeCount) are rejected.
+        public static Graph fromEdges(int nodeCount, int[] sources, int[] targets, int edgeCount) {
+            int[] outDegree = new int[nodeCount];
+            int[] inOffsets = new int[nodeCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                int source = sources[e];
+                int target = targets[e];
+                if (source < 0 || source >= nodeCount || target < 0 || target >= nodeCount) {
+                    throw new IllegalArgumentException("Edge " + source + " -> " + target + " outside graph of " + nodeCount);
+                }
+                outDegree[source]++;
+                inOffsets[target + 1]++;
+            }
+            for (int v = 0; v < nodeCount; v++) {
+                inOffsets[v + 1] += inOffsets[v];
+            }
+
+            int[] inLinks = new int[edgeCount];
+            int[] cursor = Arrays.copyOf(inOffsets, nodeCount);
+            for (int e = 0; e < edgeCount; e++) {
+                inLinks[cursor[targets[e]]++] = sources[e];
+            }
+            return new Graph(nodeCount, inOffsets, inLinks, outDegree);
+        }
+    }
+
+    public static class Result {
+        final double[] scores;
+        final int iterations;
+        final double residual;
+        final boolean converged;
+
+        Result(double[] scores, int iterations, double residual, boolean converged) {
+            this.scores = scores;
+            this.iterations = iterations;
+            this.residual = residual;
+            this.converged = converged;
+        }
+
+        public double[] getScores() {
+            return scores;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        // L1 distance between the last two iterates
+        public double getResidual() {
+            return residual;
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+    }
+
+    public Result compute(Graph graph) {
+        int n = graph.nodeCount;
+        double[] initial = new double[n];
+        Arrays.fill(initial, n == 0 ? 0 : 1.0 / n);
+        return compute(graph, initial);
+    }
+
+    // Iterates from the given starting vector (which is not modified) until the L1 change
+    // between iterates drops below the tolerance or maxIterations is reached. Rank held by
+    // dangling nodes (no out-links) is redistributed uniformly, so scores always sum to 1.
+    public Result compute(Graph graph, double[] initial) {
+        int n = graph.nodeCount;
+        if (initial.length != n) {
+            throw new IllegalArgumentException("Initial vector has " + initial.length + " entries, graph has " + n);
+        }
+        if (n == 0) {
+            return new Result(new double[0], 0, 0, true);
+        }
+
+        double[] scores = Arrays.copyOf(initial, n);
+        double[] next = new double[n];
+        double[] contribution = new double[n];
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            int iteration = 0;
+            double residual = Double.MAX_VALUE;
+            while (iteration < maxIterations && residual >= tolerance) {
+                double[] current = scores;
+                double danglingMass = run(pool, chunks, chunk -> scatter(graph, current, contribution, chunk));
+                double base = (1 - dampingFactor) / n + dampingFactor * danglingMass / n;
+                double[] target = next;
+                residual = run(pool, chunks, chunk -> gather(graph, current, target, contribution, base, chunk));
+
+                next = scores;
+                scores = target;
+                iteration++;
+            }
+            return new Result(scores, iteration, residual, residual < tolerance);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private interface ChunkTask {
+        double apply(int chunk);
+    }
+
+    private static double run(ForkJoinPool pool, int chunks, ChunkTask task) {
+        if (pool == null) {
+            double sum = 0;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                sum += task.apply(chunk);
+            }
+            return sum;
+        }
+        return pool.submit(() -> IntStream.range(0, chunks).parallel().mapToDouble(task::apply).sum()).join();
+    }
+
+    // Spreads each node's rank over its out-links; returns the rank held by dangling nodes
+    private static double scatter(Graph graph, double[] scores, double[] contribution, int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(graph.nodeCount, from + CHUNK_SIZE);
+        double dangling = 0;
+        for (int u = from; u < to; u++) {
+            int degree = graph.outDegree[u];
+            if (degree == 0) {
+                dangling += scores[u];
+                contribution[u] = 0;
+            } else {
+                contribution[u] = scores[u] / degree;
+            }
+        }
+        return dangling;
+    }
+
+    // Pulls rank along in-links; returns the L1 change for this chunk
+    private double gather(Graph graph, double[] scores, double[] next, double[] contribution, double base, int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(graph.nodeCount, from + CHUNK_SIZE);
+        int[] inOffsets = graph.inOffsets;
+        int[] inLinks = graph.inLinks;
+        double delta = 0;
+        for (int v = from; v < to; v++) {
+            double sum = 0;
+            for (int e = inOffsets[v], end = inOffsets[v + 1]; e < end; e++) {
+                sum += contribution[inLinks[e]];
+            }
+            double score = base + dampingFactor * sum;
+            delta += Math.abs(score - scores[v]);
+            next[v] = score;
+        }
+        return delta;
+    }
+}
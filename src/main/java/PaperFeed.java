@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Tails an append-only ingestion feed for SemanticClusterSearchEngine.ingest. Records use the
+// dataset's format (#*, #@, #t, #c, #index, #%, #!): one whose #index id is already known
+// replaces that paper, one with a new id adds it. A line "#-<id>" deletes the paper with that
+// id. Changes keep their feed order.
+//
+// A record or deletion counts as written once the blank line after it is, so poll() never
+// picks up a half-appended record; anything after the last blank line is left for the next
+// poll. Not thread-safe: one thread polls a feed.
+public class PaperFeed {
+    private static final int MAX_POLL_BYTES = 64 << 20;
+
+    private final Path file;
+    // Byte offset just past the last blank line consumed
+    private long position;
+    private long skippedRecords;
+
+    public PaperFeed(String path) {
+        this(path, 0);
+    }
+
+    // Resumes a feed at a position returned by position()
+    public PaperFeed(String path, long position) {
+        this.file = Paths.get(path);
+        this.position = position;
+    }
+
+    // One feed entry: a paper to add or replace, or the id of a paper to delete
+    public static class Change {
+        final SemanticClusterSearchEngine.Paper paper;
+        final String deletedId;
+
+        private Change(SemanticClusterSearchEngine.Paper paper, String deletedId) {
+            this.paper = paper;
+            this.deletedId = deletedId;
+        }
+
+        public static Change put(SemanticClusterSearchEngine.Paper paper) {
+            if (paper.id == null || paper.id.isEmpty()) {
+                throw new IllegalArgumentException("Ingested papers need an id: " + paper);
+            }
+            return new Change(paper, null);
+        }
+
+        public static Change delete(String id) {
+            return new Change(null, id);
+        }
+
+        public boolean isDelete() {
+            return paper == null;
+        }
+
+        @Override
+        public String toString() {
+            return isDelete() ? "delete " + deletedId : "put " + paper.id;
+        }
+    }
+
+    public long position() {
+        return position;
+    }
+
+    // Records without an #index id, which cannot be ingested and are dropped
+    public long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    // Changes completed in the feed since the last poll; empty when there are none
+    public List<Change> poll() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < position) {
+                throw new IOException("Feed " + file + " shrank below the ingested position " + position);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(size - position, MAX_POLL_BYTES));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, position + bytes.position()) < 0) {
+                    break;
+                }
+            }
+            int end = completeLength(bytes.array(), bytes.position());
+            if (end == 0) {
+                if (bytes.position() == MAX_POLL_BYTES) {
+                    throw new IOException("Feed " + file + " has a record larger than " + MAX_POLL_BYTES
+                            + " bytes at " + position);
+                }
+                return new ArrayList<>();
+            }
+            String text = new String(bytes.array(), 0, end, StandardCharsets.UTF_8);
+            position += end;
+            return parse(Arrays.asList(text.split("\r?\n")));
+        }
+    }
+
+    // Length of the prefix that ends with a blank line, or 0
+    private static int completeLength(byte[] bytes, int length) {
+        for (int i = length - 1; i > 0; i--) {
+            if (bytes[i] == '\n' && (bytes[i - 1] == '\n'
+                    || bytes[i - 1] == '\r' && i > 1 && bytes[i - 2] == '\n')) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    List<Change> parse(List<String> lines) {
+        List<Change> changes = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith("#-")) {
+                addRecords(record, changes);
+                record.clear();
+                String id = line.substring(2).trim();
+                if (!id.isEmpty()) {
+                    changes.add(Change.delete(id));
+                }
+            } else {
+                record.add(line);
+            }
+        }
+        addRecords(record, changes);
+        return changes;
+    }
+
+    private void addRecords(List<String> lines, List<Change> changes) {
+        for (SemanticClusterSearchEngine.Paper paper : PaperLoader.parseBlock(lines)) {
+            if (paper.id == null || paper.id.isEmpty()) {
+                skippedRecords++;
+            } else {
+                changes.add(Change.put(paper));
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+// Staged loader for the ACM citation format (#*, #@, #t, #c, #index, #%, #!).
+//
+//   reader thread --blocks--> worker pool (parse + embed) --papers--> caller thread (sink)
+//
+// Both hand-offs go through bounded queues, so a slow stage applies backpressure to the
+// ones before it and memory stays bounded by the queue sizes, not the dump size.
+// Workers finish blocks in any order, but the sink sees papers in input order: blocks carry
+// a sequence number and are held back until their predecessors have been delivered. Callers
+// number papers as they arrive (the engine's ordinals), so the same file always gets the same
+// numbering, whatever the number of workers.
+public class PaperLoader {
+    private static final int DEFAULT_RECORDS_PER_BLOCK = 256;
+    private static final long POLL_MILLIS = 100;
+
+    // Queue sentinels; compared by identity
+    private static final Block END_OF_BLOCKS = new Block(-1, new ArrayList<>());
+    private static final ParsedBlock END_OF_PAPERS = new ParsedBlock(-1, new ArrayList<>());
+
+    private final Function<String, float[]> embedder;
+    private final int workers;
+    private final int recordsPerBlock;
+    private final int queueCapacity;
+
+    private volatile Throwable failure;
+
+    public PaperLoader(Function<String, float[]> embedder) {
+        this(embedder, Runtime.getRuntime().availableProcessors(), DEFAULT_RECORDS_PER_BLOCK,
+                4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public PaperLoader(Function<String, float[]> embedder, int workers, int recordsPerBlock, int queueCapacity) {
+        if (workers < 1 || recordsPerBlock < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("workers, recordsPerBlock and queueCapacity must be positive");
+        }
+        this.embedder = embedder;
+        this.workers = workers;
+        this.recordsPerBlock = recordsPerBlock;
+        this.queueCapacity = queueCapacity;
+    }
+
+    // Per-stage counters. Stage times are busy time summed over the threads of that stage,
+    // so the per-thread rate is papers / stage seconds.
+    public static class Stats {
+        final AtomicLong papers = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong readNanos = new AtomicLong();
+        final AtomicLong parseNanos = new AtomicLong();
+        final AtomicLong embedNanos = new AtomicLong();
+        final AtomicLong sinkNanos = new AtomicLong();
+        long wallNanos;
+        int workers;
+        String sha256;
+
+        public long getPapers() {
+            return papers.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        // Hex SHA-256 of the dataset file's bytes (compressed bytes for .gz files)
+        public String getSha256() {
+            return sha256;
+        }
+
+        public double papersPerSecond() {
+            return rate(wallNanos);
+        }
+
+        private double rate(long nanos) {
+            return nanos == 0 ? 0 : papers.get() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d papers (%.1f MB) in %.1fs: %.0f papers/s overall; "
+                            + "read %.0f papers/s, parse %.0f papers/s/worker, embed %.0f papers/s/worker, "
+                            + "sink %.0f papers/s (%d workers)",
+                    papers.get(), bytes.get() / 1e6, wallNanos / 1e9, papersPerSecond(),
+                    rate(readNanos.get()), rate(parseNanos.get()), rate(embedNanos.get()), rate(sinkNanos.get()),
+                    workers);
+        }
+    }
+
+    // Lines of whole records, numbered in input order
+    private static class Block {
+        final long sequence;
+        final List<String> lines;
+
+        Block(long sequence, List<String> lines) {
+            this.sequence = sequence;
+            this.lines = lines;
+        }
+    }
+
+    // Parsed papers and their title embeddings, index-aligned
+    private static class ParsedBlock {
+        final long sequence;
+        final List<SemanticClusterSearchEngine.Paper> papers;
+        final float[][] vectors;
+
+        ParsedBlock(long sequence, List<SemanticClusterSearchEngine.Paper> papers) {
+            this.sequence = sequence;
+            this.papers = papers;
+            this.vectors = new float[papers.size()][];
+        }
+    }
+
+    // Loads every record in the dataset and hands each parsed paper with its title embedding
+    // to the sink on the calling thread, in file order, so the sink does not need to be
+    // thread-safe.
+    // Files ending in .gz are decompressed.
+    public Stats load(String datasetPath, BiConsumer<SemanticClusterSearchEngine.Paper, float[]> sink) throws Exception {
+        failure = null;
+        Stats stats = new Stats();
+        stats.workers = workers;
+        long start = System.nanoTime();
+
+        BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<ParsedBlock> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        // Blocks read but not yet delivered. Bounding them bounds the blocks held back for
+        // reordering behind a slow one, not just those waiting in the queues.
+        Semaphore undelivered = new Semaphore(2 * queueCapacity + workers);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers + 1, runnable -> {
+            Thread thread = new Thread(runnable, "paper-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            pool.execute(() -> {
+                try {
+                    readBlocks(datasetPath, blocks, undelivered, stats);
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            });
+            for (int i = 0; i < workers; i++) {
+                pool.execute(() -> {
+                    try {
+                        parseBlocks(blocks, parsed, stats);
+                    } catch (Throwable t) {
+                        fail(t);
+                    }
+                });
+            }
+
+            Map<Long, ParsedBlock> heldBack = new HashMap<>();
+            long nextSequence = 0;
+            int finishedWorkers = 0;
+            while (finishedWorkers < workers) {
+                ParsedBlock batch = parsed.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                checkFailure();
+                if (batch == null) {
+                    continue;
+                }
+                if (batch == END_OF_PAPERS) {
+                    finishedWorkers++;
+                    continue;
+                }
+                heldBack.put(batch.sequence, batch);
+                for (batch = heldBack.remove(nextSequence); batch != null; batch = heldBack.remove(nextSequence)) {
+                    long sinkStart = System.nanoTime();
+                    for (int i = 0; i < batch.papers.size(); i++) {
+                        sink.accept(batch.papers.get(i), batch.vectors[i]);
+                    }
+                    stats.sinkNanos.addAndGet(System.nanoTime() - sinkStart);
+                    stats.papers.addAndGet(batch.papers.size());
+                    undelivered.release();
+                    nextSequence++;
+                }
+            }
+            if (!heldBack.isEmpty()) {
+                throw new IllegalStateException("Dataset loading lost block " + nextSequence);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        checkFailure();
+
+        stats.wallNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        Throwable t = failure;
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t != null) {
+            throw new IllegalStateException("Dataset loading failed", t);
+        }
+    }
+
+    static InputStream open(String datasetPath) throws IOException {
+        return decompress(datasetPath, new FileInputStream(datasetPath));
+    }
+
+    private static InputStream decompress(String datasetPath, InputStream in) throws IOException {
+        if (datasetPath.endsWith(".gz")) {
+            return new GZIPInputStream(in, 1 << 16);
+        }
+        return in;
+    }
+
+    // Stage 1: split the input into blocks of whole records (each record starts at "#*"), and
+    // hash the file on the way through
+    private void readBlocks(String datasetPath, BlockingQueue<Block> blocks, Semaphore undelivered,
+                            Stats stats) throws Exception {
+        long busy = System.nanoTime();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        InputStream raw = new DigestInputStream(new FileInputStream(datasetPath), digest);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(decompress(datasetPath, raw), StandardCharsets.UTF_8), 1 << 16)) {
+            List<String> block = new ArrayList<>();
+            long sequence = 0;
+            int records = 0;
+            long bytes = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                bytes += line.length() + 1;
+                if (line.startsWith("#*")) {
+                    if (records == recordsPerBlock) {
+                        stats.readNanos.addAndGet(System.nanoTime() - busy);
+                        if (!acquire(undelivered) || !offer(blocks, new Block(sequence++, block))) {
+                            return;
+                        }
+                        busy = System.nanoTime();
+                        block = new ArrayList<>(block.size());
+                        records = 0;
+                    }
+                    records++;
+                }
+                block.add(line);
+            }
+            // Whatever the decompressor left unread still belongs to the file
+            byte[] rest = new byte[1 << 16];
+            while (raw.read(rest) >= 0) {
+                // Only hashed
+            }
+            stats.sha256 = hex(digest.digest());
+            stats.bytes.addAndGet(bytes);
+            stats.readNanos.addAndGet(System.nanoTime() - busy);
+            if (!block.isEmpty() && acquire(undelivered)) {
+                offer(blocks, new Block(sequence, block));
+            }
+        } finally {
+            // Let every worker drain and stop, even if reading failed part-way
+            for (int i = 0; i < workers; i++) {
+                offer(blocks, END_OF_BLOCKS);
+            }
+        }
+    }
+
+    // Stage 2: parse records and compute their title embeddings
+    private void parseBlocks(BlockingQueue<Block> blocks,
+                             BlockingQueue<ParsedBlock> parsed, Stats stats) throws Exception {
+        try {
+            while (true) {
+                Block block = blocks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (failure != null) {
+                    return;
+                }
+                if (block == null) {
+                    continue;
+                }
+                if (block == END_OF_BLOCKS) {
+                    break;
+                }
+
+                long parseStart = System.nanoTime();
+                ParsedBlock papers = new ParsedBlock(block.sequence, parseBlock(block.lines));
+                long embedStart = System.nanoTime();
+                for (int i = 0; i < papers.vectors.length; i++) {
+                    // Every paper gets a vector, with or without an abstract
+                    String title = papers.papers.get(i).title;
+                    papers.vectors[i] = embedder.apply(title == null ? "" : title);
+                }
+                long embedEnd = System.nanoTime();
+                stats.parseNanos.addAndGet(embedStart - parseStart);
+                stats.embedNanos.addAndGet(embedEnd - embedStart);
+
+                offer(parsed, papers);
+            }
+        } finally {
+            offer(parsed, END_OF_PAPERS);
+        }
+    }
+
+    static List<SemanticClusterSearchEngine.Paper> parseBlock(List<String> lines) {
+        List<SemanticClusterSearchEngine.Paper> papers = new ArrayList<>();
+        SemanticClusterSearchEngine.Paper currentPaper = null;
+        for (String line : lines) {
+            if (line.startsWith("#*")) {
+                currentPaper = new SemanticClusterSearchEngine.Paper();
+                currentPaper.title = line.substring(2).trim();
+                papers.add(currentPaper);
+            } else if (currentPaper == null) {
+                // Anything before the first title line belongs to no record
+                continue;
+            } else if (line.startsWith("#@")) {
+                currentPaper.authors = line.substring(2).trim();
+            } else if (line.startsWith("#t")) {
+                currentPaper.year = line.substring(2).trim();
+            } else if (line.startsWith("#c")) {
+                currentPaper.venue = line.substring(2).trim();
+            } else if (line.startsWith("#index")) {
+                currentPaper.id = line.substring(6).trim();
+            } else if (line.startsWith("#%")) {
+                if (currentPaper.references == null) {
+                    currentPaper.references = new ArrayList<>();
+                }
+                currentPaper.references.add(line.substring(2).trim());
+            } else if (line.startsWith("#!")) {
+                currentPaper.abstractPaper = line.substring(2).trim();
+            }
+        }
+        return papers;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Blocking acquire that gives up once another stage has failed, like offer()
+    private boolean acquire(Semaphore permits) throws InterruptedException {
+        while (!permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Blocking put that gives up once another stage has failed, so nothing hangs on a full queue
+    private <T> boolean offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
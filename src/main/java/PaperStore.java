@@ -0,0 +1,735 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// Columnar paper metadata keyed by dense ordinal, the same ordinal as the embedding row and
+// the Lucene "ordinal" doc value. Instead of one object graph per paper there are a few
+// primitive columns:
+//   ids, venues, years, author names  dictionary codes
+//   authors, references               slices of a shared int pool (reference targets are id
+//                                     codes, so ids outside the dataset cost nothing extra)
+//   titles, abstracts                 addresses into a UTF-8 byte arena
+//   PageRank                          double[]
+// Every string, dictionary entries included, lives in one arena whose chunks are either heap
+// buffers or regions of a memory-mapped file, so the heap holds a handful of arrays per
+// column however large the corpus grows. Paper objects are only materialised by paper().
+//
+// A store can be written to an EngineSnapshot and reopened from one: the columns are copied
+// back onto the heap and the arena chunks are mapped straight from the snapshot file.
+//
+// Writes (put, delete, setPageRanks) must come from one thread at a time; reads are safe from
+// any number of threads, concurrently with the writer. put() changes columns, dictionaries
+// and slice pools in place, so it holds a write lock, and the accessors read under an
+// optimistic stamp of that lock: normally a read costs two volatile reads, and one that
+// overlapped a put is thrown away and repeated under the read lock. Each accessor therefore
+// returns a value of one version of the paper, and a new paper becomes visible through
+// size() only once all of its columns are written. Separate calls racing with the update of
+// an existing paper may still see the old value from one and the new value from another.
+// Deletion flags and the PageRank column are single words or a whole-array swap and are read
+// without the lock.
+public class PaperStore implements Closeable {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Utf8Arena text;
+    private final Dictionary ids;
+    private final Dictionary venues;
+    private final Dictionary years;
+    private final Dictionary authorNames;
+    private final IntSlices authors = new IntSlices();
+    private final IntSlices references = new IntSlices();
+    // Held for writing by put(); see the class comment
+    private final StampedLock lock = new StampedLock();
+
+    private volatile int size;
+    private int deletedCount;
+    private int[] idCodes = new int[INITIAL_CAPACITY];
+    // Id code -> ordinal; -1 for ids only ever seen as a reference
+    private int[] ordinalsByIdCode = new int[INITIAL_CAPACITY];
+    private long[] titles = new long[INITIAL_CAPACITY];
+    private long[] abstracts = new long[INITIAL_CAPACITY];
+    private int[] venueCodes = new int[INITIAL_CAPACITY];
+    private int[] yearCodes = new int[INITIAL_CAPACITY];
+    private double[] pageRanks = new double[INITIAL_CAPACITY];
+    // One bit per ordinal, set for deleted papers
+    private long[] deleted = new long[INITIAL_CAPACITY / 64];
+
+    private PaperStore(Utf8Arena text) {
+        this.text = text;
+        this.ids = new Dictionary(text);
+        this.venues = new Dictionary(text);
+        this.years = new Dictionary(text);
+        this.authorNames = new Dictionary(text);
+        Arrays.fill(ordinalsByIdCode, -1);
+    }
+
+    // Arena in heap byte buffers
+    public static PaperStore onHeap() {
+        return new PaperStore(new Utf8Arena(ByteBuffer::allocate, null));
+    }
+
+    // Arena in a memory-mapped scratch file, replaced if it exists: string data stays in the
+    // page cache, outside the Java heap and the direct memory limit
+    public static PaperStore mapped(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        long[] fileOffset = {0};
+        return new PaperStore(new Utf8Arena(size -> {
+            ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, fileOffset[0], size);
+            fileOffset[0] += size;
+            return chunk;
+        }, channel));
+    }
+
+    // Columns of a snapshot written by writeTo. Papers added later go to fresh heap chunks;
+    // the mapped chunks are only read.
+    static PaperStore open(EngineSnapshot.Reader snapshot) throws IOException {
+        Utf8Arena text = new Utf8Arena(ByteBuffer::allocate, null);
+        long offset = 0;
+        for (long length : snapshot.readLongs("papers.arena.chunks")) {
+            ByteBuffer chunk = snapshot.map("papers.arena", offset, (int) length);
+            // Full, so nothing is ever appended to it
+            chunk.position(chunk.limit());
+            text.chunks.add(chunk);
+            offset += length;
+        }
+        text.bytes = Long.parseLong(snapshot.meta("papers.arena.bytes"));
+
+        PaperStore store = new PaperStore(text);
+        store.ids.readFrom(snapshot, "papers.ids");
+        store.venues.readFrom(snapshot, "papers.venues");
+        store.years.readFrom(snapshot, "papers.years");
+        store.authorNames.readFrom(snapshot, "papers.authorNames");
+        store.authors.readFrom(snapshot, "papers.authors");
+        store.references.readFrom(snapshot, "papers.references");
+
+        store.size = Integer.parseInt(snapshot.meta("papers.size"));
+        store.idCodes = snapshot.readInts("papers.idCodes");
+        store.ordinalsByIdCode = snapshot.readInts("papers.ordinalsByIdCode");
+        store.titles = snapshot.readLongs("papers.titles");
+        store.abstracts = snapshot.readLongs("papers.abstracts");
+        store.venueCodes = snapshot.readInts("papers.venueCodes");
+        store.yearCodes = snapshot.readInts("papers.yearCodes");
+        store.pageRanks = snapshot.readDoubles("papers.pageRanks");
+        // Snapshots written before any paper was deleted have no deletion bitmap
+        store.deleted = snapshot.hasSection("papers.deleted")
+                ? snapshot.readLongs("papers.deleted") : new long[(store.size + 63) >>> 6];
+        if (store.deleted.length != (store.size + 63) >>> 6) {
+            throw new IOException("Snapshot paper columns do not hold " + store.size + " papers");
+        }
+        for (long word : store.deleted) {
+            store.deletedCount += Long.bitCount(word);
+        }
+        for (int[] column : new int[][]{store.idCodes, store.venueCodes, store.yearCodes}) {
+            if (column.length != store.size) {
+                throw new IOException("Snapshot paper columns do not hold " + store.size + " papers");
+            }
+        }
+        if (store.titles.length != store.size || store.abstracts.length != store.size
+                || store.pageRanks.length != store.size || store.ordinalsByIdCode.length != store.ids.size()) {
+            throw new IOException("Snapshot paper columns do not hold " + store.size + " papers");
+        }
+        return store;
+    }
+
+    // Writes the used part of every column, dictionary and arena chunk as "papers.*" sections
+    void writeTo(EngineSnapshot.Writer writer) throws IOException {
+        writer.meta("papers.size", Integer.toString(size));
+        writer.meta("papers.arena.bytes", Long.toString(text.bytes));
+        long[] chunkLengths = new long[text.chunks.size()];
+        writer.beginSection("papers.arena");
+        for (int i = 0; i < chunkLengths.length; i++) {
+            ByteBuffer used = text.chunks.get(i).duplicate();
+            used.flip();
+            chunkLengths[i] = used.remaining();
+            writer.writeBytes(used);
+        }
+        writer.endSection();
+        writer.longSection("papers.arena.chunks", chunkLengths, chunkLengths.length);
+
+        ids.writeTo(writer, "papers.ids");
+        venues.writeTo(writer, "papers.venues");
+        years.writeTo(writer, "papers.years");
+        authorNames.writeTo(writer, "papers.authorNames");
+        authors.writeTo(writer, "papers.authors", size);
+        references.writeTo(writer, "papers.references", size);
+
+        writer.intSection("papers.idCodes", idCodes, size);
+        writer.intSection("papers.ordinalsByIdCode", ordinalsByIdCode, ids.size());
+        writer.longSection("papers.titles", titles, size);
+        writer.longSection("papers.abstracts", abstracts, size);
+        writer.intSection("papers.venueCodes", venueCodes, size);
+        writer.intSection("papers.yearCodes", yearCodes, size);
+        writer.doubleSection("papers.pageRanks", Arrays.copyOf(pageRanks, size), size);
+        if (deletedCount > 0) {
+            writer.longSection("papers.deleted", deleted, (size + 63) >>> 6);
+        }
+    }
+
+    // Ordinals in use, deleted papers included
+    public int size() {
+        return size;
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    // Ordinal of the paper with this id, or -1
+    public int ordinal(String id) {
+        return readInt(() -> {
+            int code = ids.code(id == null ? "" : id);
+            return code < 0 ? -1 : ordinalsByIdCode[code];
+        });
+    }
+
+    // Stores the paper and returns its ordinal. A known id keeps its ordinal and has its
+    // columns replaced (and is undeleted); the superseded strings stay in the arena as garbage.
+    public int put(SemanticClusterSearchEngine.Paper paper) {
+        long stamp = lock.writeLock();
+        try {
+            return write(paper);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int write(SemanticClusterSearchEngine.Paper paper) {
+        int idCode = ids.add(paper.id == null ? "" : paper.id);
+        ensureIdCapacity(ids.size());
+        int ordinal = ordinalsByIdCode[idCode];
+        boolean added = ordinal < 0;
+        if (added) {
+            ordinal = size;
+            ensureCapacity(size + 1);
+            idCodes[ordinal] = idCode;
+        } else if (isDeleted(ordinal)) {
+            deleted[ordinal >>> 6] &= ~(1L << ordinal);
+            deletedCount--;
+        }
+
+        titles[ordinal] = paper.title == null ? -1 : text.add(paper.title);
+        abstracts[ordinal] = paper.abstractPaper == null ? -1 : text.add(paper.abstractPaper);
+        venueCodes[ordinal] = paper.venue == null ? -1 : venues.add(paper.venue);
+        yearCodes[ordinal] = paper.year == null ? -1 : years.add(paper.year);
+
+        int[] codes = new int[0];
+        int count = 0;
+        if (paper.authors != null) {
+            String[] names = paper.authors.split(",");
+            codes = new int[names.length];
+            for (String name : names) {
+                name = name.trim();
+                if (!name.isEmpty()) {
+                    codes[count++] = authorNames.add(name);
+                }
+            }
+        }
+        authors.set(ordinal, codes, count);
+
+        count = paper.references == null ? 0 : paper.references.size();
+        codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            String reference = paper.references.get(i);
+            codes[i] = ids.add(reference == null ? "" : reference);
+        }
+        ensureIdCapacity(ids.size());
+        references.set(ordinal, codes, count);
+        if (added) {
+            ordinalsByIdCode[idCode] = ordinal;
+            size = ordinal + 1;
+        }
+        return ordinal;
+    }
+
+    // Marks the paper deleted. Its ordinal and columns stay, so citations of it still resolve
+    // and a later put() of the same id brings it back under the same ordinal.
+    public void delete(int ordinal) {
+        checkOrdinal(ordinal);
+        if (!isDeleted(ordinal)) {
+            deleted[ordinal >>> 6] |= 1L << ordinal;
+            deletedCount++;
+        }
+    }
+
+    public boolean isDeleted(int ordinal) {
+        long[] words = deleted;
+        return (ordinal >>> 6) < words.length && (words[ordinal >>> 6] & 1L << ordinal) != 0;
+    }
+
+    public String id(int ordinal) {
+        return read(() -> {
+            checkOrdinal(ordinal);
+            return ids.value(idCodes[ordinal]);
+        });
+    }
+
+    public String title(int ordinal) {
+        return read(() -> {
+            checkOrdinal(ordinal);
+            return titles[ordinal] < 0 ? null : text.get(titles[ordinal]);
+        });
+    }
+
+    public String year(int ordinal) {
+        return read(() -> {
+            checkOrdinal(ordinal);
+            return yearCodes[ordinal] < 0 ? null : years.value(yearCodes[ordinal]);
+        });
+    }
+
+    public String venue(int ordinal) {
+        return read(() -> {
+            checkOrdinal(ordinal);
+            return venueCodes[ordinal] < 0 ? null : venues.value(venueCodes[ordinal]);
+        });
+    }
+
+    // Author names in order, all from the same version of the paper
+    public String[] authors(int ordinal) {
+        return read(() -> {
+            checkOrdinal(ordinal);
+            String[] names = new String[authors.count(ordinal)];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = authorNames.value(authors.get(ordinal, i));
+            }
+            return names;
+        });
+    }
+
+    // References are only walked by the writer (PageRank), so count and entries cannot change
+    // in between
+    public int referenceCount(int ordinal) {
+        return readInt(() -> {
+            checkOrdinal(ordinal);
+            return references.count(ordinal);
+        });
+    }
+
+    // Ordinal of the i-th paper this one cites, or -1 when that paper is not in the store
+    public int citedOrdinal(int ordinal, int i) {
+        return readInt(() -> ordinalsByIdCode[references.get(ordinal, i)]);
+    }
+
+    // Zero for papers added since PageRank was last computed
+    public double pageRank(int ordinal) {
+        checkOrdinal(ordinal);
+        double[] scores = pageRanks;
+        return ordinal < scores.length ? scores[ordinal] : 0;
+    }
+
+    // Replaces the whole PageRank column with scores by ordinal; the array is kept, not copied
+    public void setPageRanks(double[] scores) {
+        if (scores.length < size) {
+            throw new IllegalArgumentException("Expected " + size + " PageRank scores, got " + scores.length);
+        }
+        pageRanks = scores;
+    }
+
+    // A fresh Paper holding this ordinal's values; authors are re-joined with ","
+    public SemanticClusterSearchEngine.Paper paper(int ordinal) {
+        return read(() -> materialize(ordinal));
+    }
+
+    private SemanticClusterSearchEngine.Paper materialize(int ordinal) {
+        checkOrdinal(ordinal);
+        SemanticClusterSearchEngine.Paper paper = new SemanticClusterSearchEngine.Paper();
+        paper.ordinal = ordinal;
+        paper.id = ids.value(idCodes[ordinal]);
+        paper.title = titles[ordinal] < 0 ? null : text.get(titles[ordinal]);
+        paper.abstractPaper = abstracts[ordinal] < 0 ? null : text.get(abstracts[ordinal]);
+        paper.venue = venueCodes[ordinal] < 0 ? null : venues.value(venueCodes[ordinal]);
+        paper.year = yearCodes[ordinal] < 0 ? null : years.value(yearCodes[ordinal]);
+
+        int authorCount = authors.count(ordinal);
+        if (authorCount > 0) {
+            StringBuilder names = new StringBuilder();
+            for (int i = 0; i < authorCount; i++) {
+                names.append(i == 0 ? "" : ",").append(authorNames.value(authors.get(ordinal, i)));
+            }
+            paper.authors = names.toString();
+        }
+        int referenceCount = references.count(ordinal);
+        if (referenceCount > 0) {
+            paper.references = new ArrayList<>(referenceCount);
+            for (int i = 0; i < referenceCount; i++) {
+                paper.references.add(ids.value(references.get(ordinal, i)));
+            }
+        }
+        paper.pageRankScore = pageRank(ordinal) * 100000;
+        return paper;
+    }
+
+    // Approximate heap taken by the columns, dictionary tables and int pools
+    public long heapBytes() {
+        return 4L * (idCodes.length + ordinalsByIdCode.length + venueCodes.length + yearCodes.length)
+                + 8L * (titles.length + abstracts.length + pageRanks.length + deleted.length)
+                + ids.heapBytes() + venues.heapBytes() + years.heapBytes() + authorNames.heapBytes()
+                + authors.heapBytes() + references.heapBytes();
+    }
+
+    // Bytes of string data written to the arena (heap or mapped)
+    public long arenaBytes() {
+        return text.bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        text.close();
+    }
+
+    // Runs a read optimistically and keeps its result if no put() overlapped it. Otherwise the
+    // result, or an exception from arrays caught mid-update, is discarded and the read is
+    // repeated under the read lock.
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T value = reader.get();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int readInt(IntSupplier reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int value = reader.getAsInt();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " of " + size);
+        }
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows > idCodes.length) {
+            int capacity = Math.max(rows, idCodes.length * 2);
+            idCodes = Arrays.copyOf(idCodes, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            abstracts = Arrays.copyOf(abstracts, capacity);
+            venueCodes = Arrays.copyOf(venueCodes, capacity);
+            yearCodes = Arrays.copyOf(yearCodes, capacity);
+            pageRanks = Arrays.copyOf(pageRanks, capacity);
+            deleted = Arrays.copyOf(deleted, (capacity + 63) >>> 6);
+        }
+    }
+
+    private void ensureIdCapacity(int codes) {
+        int previous = ordinalsByIdCode.length;
+        if (codes > previous) {
+            ordinalsByIdCode = Arrays.copyOf(ordinalsByIdCode, Math.max(codes, previous * 2));
+            Arrays.fill(ordinalsByIdCode, previous, ordinalsByIdCode.length, -1);
+        }
+    }
+
+    // Variable-length int lists per row as slices of one pool, each packed as start << 32 | count
+    // so a reader never pairs one list's start with another's count. Replacing a row's list
+    // appends a new slice and then switches the row to it; the old one is left unused.
+    private static class IntSlices {
+        private long[] slices = new long[INITIAL_CAPACITY];
+        // Written before the slices that point into it
+        private volatile int[] pool = new int[4 * INITIAL_CAPACITY];
+        private int poolSize;
+
+        void set(int row, int[] values, int count) {
+            if (row >= slices.length) {
+                slices = Arrays.copyOf(slices, Math.max(row + 1, slices.length * 2));
+            }
+            int[] target = pool;
+            if (poolSize + count > target.length) {
+                target = Arrays.copyOf(target, Math.max(poolSize + count, target.length * 2));
+            }
+            System.arraycopy(values, 0, target, poolSize, count);
+            pool = target;
+            slices[row] = (long) poolSize << 32 | count;
+            poolSize += count;
+        }
+
+        int count(int row) {
+            return (int) slices[row];
+        }
+
+        int get(int row, int i) {
+            long slice = slices[row];
+            if (i < 0 || i >= (int) slice) {
+                throw new IndexOutOfBoundsException("Entry " + i + " of " + (int) slice);
+            }
+            return pool[(int) (slice >>> 32) + i];
+        }
+
+        long heapBytes() {
+            return 8L * slices.length + 4L * pool.length;
+        }
+
+        void writeTo(EngineSnapshot.Writer writer, String prefix, int rows) throws IOException {
+            int[] starts = new int[rows];
+            int[] counts = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                starts[row] = (int) (slices[row] >>> 32);
+                counts[row] = (int) slices[row];
+            }
+            writer.intSection(prefix + ".starts", starts, rows);
+            writer.intSection(prefix + ".counts", counts, rows);
+            writer.intSection(prefix + ".pool", pool, poolSize);
+        }
+
+        void readFrom(EngineSnapshot.Reader snapshot, String prefix) throws IOException {
+            int[] starts = snapshot.readInts(prefix + ".starts");
+            int[] counts = snapshot.readInts(prefix + ".counts");
+            if (starts.length != counts.length) {
+                throw new IOException("Snapshot slices " + prefix + " are inconsistent");
+            }
+            slices = new long[starts.length];
+            for (int row = 0; row < starts.length; row++) {
+                slices[row] = (long) starts[row] << 32 | counts[row];
+            }
+            pool = snapshot.readInts(prefix + ".pool");
+            poolSize = pool.length;
+        }
+    }
+
+    // Interns strings as dense int codes. Values are stored once in the arena; an
+    // open-addressing table of codes is probed by hash and confirmed against the arena bytes.
+    private static class Dictionary {
+        private final Utf8Arena arena;
+        private long[] addresses = new long[16];
+        private int[] hashes = new int[16];
+        // code + 1 per slot, 0 for empty; kept at most half full
+        private int[] table = new int[32];
+        private int size;
+
+        Dictionary(Utf8Arena arena) {
+            this.arena = arena;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Code of the value, or -1 when it was never added
+        int code(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int hash = hash(bytes);
+            return table[find(bytes, hash)] - 1;
+        }
+
+        int add(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int hash = hash(bytes);
+            int slot = find(bytes, hash);
+            if (table[slot] != 0) {
+                return table[slot] - 1;
+            }
+            if (size == addresses.length) {
+                // Arrays read from a snapshot are trimmed, possibly to nothing
+                addresses = Arrays.copyOf(addresses, Math.max(16, size * 2));
+                hashes = Arrays.copyOf(hashes, Math.max(16, size * 2));
+            }
+            addresses[size] = arena.add(bytes);
+            hashes[size] = hash;
+            table[slot] = ++size;
+            if (2 * size > table.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        String value(int code) {
+            return arena.get(addresses[code]);
+        }
+
+        long heapBytes() {
+            return 8L * addresses.length + 4L * (hashes.length + table.length);
+        }
+
+        void writeTo(EngineSnapshot.Writer writer, String prefix) throws IOException {
+            writer.longSection(prefix + ".addresses", addresses, size);
+            writer.intSection(prefix + ".hashes", hashes, size);
+            writer.intSection(prefix + ".table", table, table.length);
+        }
+
+        void readFrom(EngineSnapshot.Reader snapshot, String prefix) throws IOException {
+            addresses = snapshot.readLongs(prefix + ".addresses");
+            hashes = snapshot.readInts(prefix + ".hashes");
+            table = snapshot.readInts(prefix + ".table");
+            size = addresses.length;
+            if (hashes.length != size || Integer.bitCount(table.length) != 1 || 2 * size > table.length) {
+                throw new IOException("Snapshot dictionary " + prefix + " is inconsistent");
+            }
+        }
+
+        private int find(byte[] bytes, int hash) {
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                int code = table[slot] - 1;
+                if (hashes[code] == hash && arena.equalsAt(addresses[code], bytes)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            int[] grown = new int[table.length * 2];
+            int mask = grown.length - 1;
+            for (int code = 0; code < size; code++) {
+                int slot = hashes[code] & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = code + 1;
+            }
+            table = grown;
+        }
+
+        private static int hash(byte[] bytes) {
+            int h = Arrays.hashCode(bytes);
+            // Spread the high bits, since the table index only uses the low ones
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // Append-only UTF-8 strings, each a varint byte length followed by the bytes, addressed as
+    // chunk << 32 | position. Values never straddle chunks; one larger than a chunk gets a
+    // chunk of its own.
+    private static class Utf8Arena implements Closeable {
+        private static final int CHUNK_SIZE = 1 << 24;
+
+        interface Allocator {
+            ByteBuffer allocate(int size) throws IOException;
+        }
+
+        private final Allocator allocator;
+        private final Closeable resource;
+        // Copy-on-write, so readers can look chunks up while the writer adds one
+        private final List<ByteBuffer> chunks = new CopyOnWriteArrayList<>();
+        private ByteBuffer current;
+        long bytes;
+
+        Utf8Arena(Allocator allocator, Closeable resource) {
+            this.allocator = allocator;
+            this.resource = resource;
+        }
+
+        long add(String value) {
+            return add(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        long add(byte[] value) {
+            int needed = varintSize(value.length) + value.length;
+            if (current == null || current.remaining() < needed) {
+                try {
+                    current = allocator.allocate(Math.max(CHUNK_SIZE, needed));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not grow the paper store arena", e);
+                }
+                chunks.add(current);
+            }
+            long address = (long) (chunks.size() - 1) << 32 | current.position();
+            for (int length = value.length; ; length >>>= 7) {
+                if (length < 0x80) {
+                    current.put((byte) length);
+                    break;
+                }
+                current.put((byte) (length & 0x7F | 0x80));
+            }
+            current.put(value);
+            bytes += needed;
+            return address;
+        }
+
+        String get(long address) {
+            ByteBuffer chunk = chunks.get((int) (address >>> 32));
+            int length = length(chunk, (int) address);
+            byte[] value = new byte[length];
+            // Absolute reads on a private view, so concurrent readers never share a position
+            ByteBuffer view = chunk.duplicate();
+            view.position((int) address + varintSize(length));
+            view.get(value);
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        boolean equalsAt(long address, byte[] value) {
+            ByteBuffer chunk = chunks.get((int) (address >>> 32));
+            int length = length(chunk, (int) address);
+            if (length != value.length) {
+                return false;
+            }
+            int position = (int) address + varintSize(length);
+            for (int i = 0; i < length; i++) {
+                if (chunk.get(position + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int length(ByteBuffer chunk, int position) {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = chunk.get(position++);
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return length;
+                }
+            }
+        }
+
+        private static int varintSize(int value) {
+            int size = 1;
+            while ((value >>>= 7) != 0) {
+                size++;
+            }
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongBiFunction;
+
+// Thread-safe LRU cache bounded by entry count and by an approximate byte size computed with
+// a caller-supplied weigher. Entries are tagged with the cache generation they were computed
+// under; invalidateAll() bumps the generation, so results still in flight from before an
+// invalidation are dropped instead of repopulating the cache with stale data.
+public class QueryCache<K, V> {
+    // Rough per-entry overhead of a LinkedHashMap node plus the key/value references
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ToLongBiFunction<K, V> weigher;
+    private final LinkedHashMap<K, Weighted<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryCache(String name, int maxEntries, long maxBytes, ToLongBiFunction<K, V> weigher) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    private static class Weighted<V> {
+        final V value;
+        final long bytes;
+
+        Weighted(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    public synchronized V get(K key) {
+        Weighted<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    // Generation to pass to put() for a value computed from now on
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // Caches the value unless the cache was invalidated after the given generation was read
+    public synchronized void put(K key, V value, long computedAt) {
+        if (computedAt != generation || maxEntries <= 0) {
+            return;
+        }
+        long weight = ENTRY_OVERHEAD_BYTES + weigher.applyAsLong(key, value);
+        if (weight > maxBytes) {
+            return;
+        }
+        Weighted<V> previous = entries.put(key, new Weighted<>(value, weight));
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += weight;
+
+        Iterator<Map.Entry<K, Weighted<V>>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(name, hits, misses, evictions, entries.size(), bytes);
+    }
+
+    public static class Stats {
+        final String name;
+        final long hits;
+        final long misses;
+        final long evictions;
+        final int entries;
+        final long bytes;
+
+        Stats(String name, long hits, long misses, long evictions, int entries, long bytes) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries, ~%d KB",
+                    name, hits, misses, 100 * hitRate(), evictions, entries, bytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Structured restrictions on a search: an inclusive year range and an exact venue and author
+// name, each optional (null). Lucene gets them as non-scoring FILTER clauses, so its top N is
+// taken from matching papers only instead of being thinned out after retrieval. Embedding-only
+// candidates do not come from Lucene and are checked against the paper store instead.
+public class SearchFilter {
+    public static final SearchFilter NONE = new SearchFilter(null, null, null, null);
+
+    final Integer yearFrom;
+    final Integer yearTo;
+    final String venue;
+    final String author;
+
+    public SearchFilter(Integer yearFrom, Integer yearTo, String venue, String author) {
+        if (yearFrom != null && yearTo != null && yearFrom > yearTo) {
+            throw new IllegalArgumentException("Empty year range " + yearFrom + ".." + yearTo);
+        }
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+        this.venue = venue == null || venue.trim().isEmpty() ? null : venue.trim();
+        this.author = author == null || author.trim().isEmpty() ? null : author.trim();
+    }
+
+    public boolean isEmpty() {
+        return yearFrom == null && yearTo == null && venue == null && author == null;
+    }
+
+    // The query restricted to papers passing the filter; scores are those of the query alone
+    Query apply(Query query) {
+        if (isEmpty()) {
+            return query;
+        }
+        BooleanQuery.Builder filtered = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+        if (yearFrom != null || yearTo != null) {
+            int from = yearFrom == null ? Integer.MIN_VALUE : yearFrom;
+            int to = yearTo == null ? Integer.MAX_VALUE : yearTo;
+            // Lucene picks per segment: the points index when the range leads the query, doc
+            // values when another clause is more selective and years only need checking
+            filtered.add(new IndexOrDocValuesQuery(
+                    IntPoint.newRangeQuery(SemanticClusterSearchEngine.YEAR_FIELD, from, to),
+                    NumericDocValuesField.newSlowRangeQuery(SemanticClusterSearchEngine.YEAR_FIELD, from, to)),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (venue != null) {
+            filtered.add(new TermQuery(new Term(SemanticClusterSearchEngine.VENUE_FIELD, venue)),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (author != null) {
+            filtered.add(new TermQuery(new Term(SemanticClusterSearchEngine.AUTHORS_FIELD, author)),
+                    BooleanClause.Occur.FILTER);
+        }
+        return filtered.build();
+    }
+
+    // Same test as apply(), for a paper in the store
+    boolean matches(PaperStore store, int ordinal) {
+        if (yearFrom != null || yearTo != null) {
+            Integer year = SemanticClusterSearchEngine.yearValue(store.year(ordinal));
+            if (year == null || yearFrom != null && year < yearFrom || yearTo != null && year > yearTo) {
+                return false;
+            }
+        }
+        if (venue != null && !venue.equals(store.venue(ordinal))) {
+            return false;
+        }
+        if (author != null) {
+            return Arrays.asList(store.authors(ordinal)).contains(author);
+        }
+        return true;
+    }
+
+    // Part of the engine's cache keys
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SearchFilter)) {
+            return false;
+        }
+        SearchFilter other = (SearchFilter) o;
+        return Objects.equals(yearFrom, other.yearFrom) && Objects.equals(yearTo, other.yearTo)
+                && Objects.equals(venue, other.venue) && Objects.equals(author, other.author);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(yearFrom, yearTo, venue, author);
+    }
+
+    @Override
+    public String toString() {
+        return "filter(year=" + (yearFrom == null ? "" : yearFrom) + ".." + (yearTo == null ? "" : yearTo)
+                + ", venue=" + (venue == null ? "" : venue) + ", author=" + (author == null ? "" : author) + ")";
+    }
+}
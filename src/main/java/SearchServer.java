@@ -0,0 +1,510 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless HTTP/JSON front-end: the engine is loaded once and shared by all requests.
+//
+//   GET /search?q=...&topN=20&k=5[&mode=lexical|semantic|hybrid]  clustered results as JSON (k=0: automatic)
+//              [&wLexical=0.5&wSemantic=0.2&wPageRank=0.3]          per-query ranking weights
+//              [&yearFrom=2015&yearTo=2020&venue=...&author=...]     filters applied inside Lucene
+//              [&facets=true]                                       year/venue/author counts of the matches
+//   GET /health                                                   liveness and load
+//   GET /metrics                                                  engine and server metrics, Prometheus text format
+//
+// Searches run on a fixed pool of worker threads with a bounded queue. When the queue is
+// full the request is shed with 503 and Retry-After instead of piling up, and a request
+// that does not finish within the timeout (queueing included) gets a 503 as well.
+// Connection handling uses virtual threads when the JDK has them (21+). With --feed, new
+// records appended to an ingestion feed (see PaperFeed) are applied while the server runs.
+public class SearchServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_QUEUE = 64;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    private static final long DEFAULT_FEED_INTERVAL_MILLIS = 1_000;
+    private static final int MAX_TOP_N = 2_000;
+    private static final int SHUTDOWN_GRACE_SECONDS = 5;
+
+    private final SemanticClusterSearchEngine engine;
+    private final HttpServer server;
+    private final ThreadPoolExecutor searchPool;
+    private final ExecutorService connectionPool;
+    private final long timeoutMillis;
+    // Polls the ingestion feed, if one is followed
+    private final ScheduledExecutorService feedPoller = Executors.newSingleThreadScheduledExecutor(
+            daemonThreads("feed-poller"));
+
+    // Set while a connection is being handled on the dispatcher thread after its executor
+    // rejected it; the handler then answers 503 without doing any work
+    private final ThreadLocal<Boolean> shedding = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public SearchServer(SemanticClusterSearchEngine engine, int port, int workers, int queueCapacity,
+                        long timeoutMillis) throws IOException {
+        this.engine = engine;
+        this.timeoutMillis = timeoutMillis;
+        Metrics metrics = engine.metrics();
+        metrics.gauge("http_in_flight", inFlight::get);
+        metrics.gauge("http_served", served::get);
+        metrics.gauge("http_shed", shed::get);
+        metrics.gauge("http_timed_out", timedOut::get);
+        this.searchPool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads("search-worker"));
+
+        // Connection threads mostly wait on searches, so they are capped at what the search
+        // pool can admit plus a little headroom for health checks
+        ExecutorService virtual = virtualThreadExecutor();
+        this.connectionPool = virtual != null ? virtual
+                : new ThreadPoolExecutor(0, workers + queueCapacity + 4, 30, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), daemonThreads("http"));
+
+        server = HttpServer.create(new InetSocketAddress(port), queueCapacity);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(shedOnReject(connectionPool));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Search server listening on port " + server.getAddress().getPort() + ".");
+    }
+
+    // Stops accepting connections, lets in-flight requests finish for up to the grace
+    // period, then stops the worker pools
+    public void stop(int graceSeconds) {
+        feedPoller.shutdownNow();
+        server.stop(graceSeconds);
+        searchPool.shutdown();
+        connectionPool.shutdown();
+        try {
+            if (!searchPool.awaitTermination(graceSeconds, TimeUnit.SECONDS)) {
+                searchPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            searchPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Applies the changes appended to the feed every interval. A failed poll is logged and
+    // retried from the same position at the next one.
+    public void followFeed(PaperFeed feed, long intervalMillis) {
+        feedPoller.scheduleWithFixedDelay(() -> {
+            try {
+                List<PaperFeed.Change> changes = feed.poll();
+                if (!changes.isEmpty()) {
+                    engine.ingest(changes);
+                }
+            } catch (Exception e) {
+                System.err.println("Feed ingestion failed: " + e);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private Executor shedOnReject(ExecutorService pool) {
+        return task -> {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                shedding.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    shedding.remove();
+                }
+            }
+        };
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on JDK 21+, looked up reflectively so the
+    // project still builds for Java 11
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (shedding.get()) {
+                shed.incrementAndGet();
+                sendOverloaded(exchange);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            Map<String, String> params = queryParameters(exchange.getRequestURI().getRawQuery());
+            String query = params.get("q");
+            if (query == null || query.trim().isEmpty()) {
+                sendError(exchange, 400, "Missing query parameter q");
+                return;
+            }
+            int topN = intParameter(params, "topN", 20);
+            int k = intParameter(params, "k", 5);
+            if (topN < 1 || topN > MAX_TOP_N || k < 0) {
+                sendError(exchange, 400, "topN must be in 1.." + MAX_TOP_N + " and k non-negative (0 picks k automatically)");
+                return;
+            }
+            SemanticClusterSearchEngine.SearchMode mode = SemanticClusterSearchEngine.SearchMode.valueOf(
+                    params.getOrDefault("mode", "lexical").toUpperCase(Locale.ROOT));
+            SemanticClusterSearchEngine.RankingWeights defaults = SemanticClusterSearchEngine.RankingWeights.DEFAULT;
+            SemanticClusterSearchEngine.RankingWeights weights = new SemanticClusterSearchEngine.RankingWeights(
+                    doubleParameter(params, "wLexical", defaults.lexical),
+                    doubleParameter(params, "wSemantic", defaults.semantic),
+                    doubleParameter(params, "wPageRank", defaults.pageRank));
+            SearchFilter filter = new SearchFilter(integerParameter(params, "yearFrom"),
+                    integerParameter(params, "yearTo"), params.get("venue"), params.get("author"));
+            boolean facets = Boolean.parseBoolean(params.get("facets"));
+
+            Future<SemanticClusterSearchEngine.SearchResult> future;
+            try {
+                future = searchPool.submit(() -> facets
+                        ? engine.facetedSearch(query, topN, k, mode, weights, filter)
+                        : new SemanticClusterSearchEngine.SearchResult(
+                                engine.clusteredSearch(query, topN, k, mode, weights, filter), null));
+            } catch (RejectedExecutionException e) {
+                shed.incrementAndGet();
+                sendOverloaded(exchange);
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            SemanticClusterSearchEngine.SearchResult result;
+            try {
+                result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timedOut.incrementAndGet();
+                sendError(exchange, 503, "Search timed out after " + timeoutMillis + " ms");
+                return;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+            long tookMillis = (System.nanoTime() - start) / 1_000_000;
+            send(exchange, 200, resultsJson(query, topN, k, mode, tookMillis, result.clusters, result.facets));
+            served.incrementAndGet();
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParseException || cause instanceof IllegalArgumentException) {
+                sendError(exchange, 400, cause.getMessage());
+            } else {
+                cause.printStackTrace();
+                sendError(exchange, 500, "Search failed: " + cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Server shutting down");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"status\":\"ok\"");
+            json.append(",\"activeSearches\":").append(searchPool.getActiveCount());
+            json.append(",\"queuedSearches\":").append(searchPool.getQueue().size());
+            json.append(",\"inFlight\":").append(inFlight.get());
+            json.append(",\"served\":").append(served.get());
+            json.append(",\"shed\":").append(shed.get());
+            json.append(",\"timedOut\":").append(timedOut.get());
+            json.append('}');
+            send(exchange, 200, json.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, 200, engine.metrics().prometheus(), "text/plain; version=0.0.4; charset=utf-8");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String resultsJson(String query, int topN, int k, SemanticClusterSearchEngine.SearchMode mode,
+                                      long tookMillis, List<SemanticClusterSearchEngine.ResultCluster> clusters,
+                                      FacetCounts facets) {
+        StringBuilder json = new StringBuilder(256 + 256 * topN);
+        json.append("{\"query\":").append(quote(query));
+        json.append(",\"topN\":").append(topN);
+        json.append(",\"k\":").append(k);
+        json.append(",\"mode\":").append(quote(mode.name().toLowerCase(Locale.ROOT)));
+        json.append(",\"tookMs\":").append(tookMillis);
+        json.append(",\"clusters\":[");
+        for (int c = 0; c < clusters.size(); c++) {
+            if (c > 0) {
+                json.append(',');
+            }
+            SemanticClusterSearchEngine.ResultCluster cluster = clusters.get(c);
+            json.append("{\"cluster\":").append(c + 1);
+            json.append(",\"label\":").append(quote(cluster.label));
+            json.append(",\"terms\":[");
+            for (int t = 0; t < cluster.topTerms.size(); t++) {
+                if (t > 0) {
+                    json.append(',');
+                }
+                json.append(quote(cluster.topTerms.get(t)));
+            }
+            json.append("],\"papers\":[");
+            List<SemanticClusterSearchEngine.Paper> papers = cluster.papers;
+            for (int p = 0; p < papers.size(); p++) {
+                SemanticClusterSearchEngine.Paper paper = papers.get(p);
+                if (p > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(quote(paper.id));
+                json.append(",\"title\":").append(quote(paper.title));
+                json.append(",\"authors\":").append(quote(paper.authors));
+                json.append(",\"year\":").append(quote(paper.year));
+                json.append(",\"venue\":").append(quote(paper.venue));
+                json.append(",\"pageRank\":").append(paper.pageRankScore);
+                json.append('}');
+            }
+            json.append("]}");
+        }
+        json.append(']');
+        if (facets != null) {
+            json.append(",\"facets\":{\"papers\":").append(facets.getPapers());
+            for (FacetCounts.Dimension dimension : FacetCounts.Dimension.values()) {
+                json.append(',').append(quote(dimension.name().toLowerCase(Locale.ROOT))).append(":{");
+                int v = 0;
+                for (Map.Entry<String, Integer> value : facets.get(dimension).entrySet()) {
+                    if (v++ > 0) {
+                        json.append(',');
+                    }
+                    json.append(quote(value.getKey())).append(':').append(value.getValue());
+                }
+                json.append('}');
+            }
+            json.append('}');
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    private static int intParameter(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer");
+        }
+    }
+
+    // Null when the parameter is absent
+    private static Integer integerParameter(Map<String, String> params, String name) {
+        String value = params.get(name);
+        return value == null || value.isEmpty() ? null : intParameter(params, name, 0);
+    }
+
+    private static double doubleParameter(Map<String, String> params, String name, double defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    private static void sendOverloaded(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendError(exchange, 503, "Server overloaded, retry later");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"error\":" + quote(message) + "}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, json, "application/json; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String text, String contentType) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // java SearchServer <dataset or .scs snapshot> <word2vec model or .wvs> [index dir]
+    //     [--port 8080] [--workers N] [--queue 64] [--timeout-ms 10000] [--slow-query-ms N]
+    //     [--feed <file>] [--feed-interval-ms 1000] [--shards 1]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SearchServer <dataset or snapshot> <word vectors> [index dir] "
+                    + "[--port N] [--workers N] [--queue N] [--timeout-ms N] [--slow-query-ms N] "
+                    + "[--feed <file>] [--feed-interval-ms N] [--shards N]");
+            System.exit(1);
+        }
+        String indexPath = null;
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = DEFAULT_QUEUE;
+        long timeout = DEFAULT_TIMEOUT_MILLIS;
+        long slowQueryMillis = -1;
+        String feedPath = null;
+        long feedInterval = DEFAULT_FEED_INTERVAL_MILLIS;
+        int shards = 1;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--queue":
+                    queue = Integer.parseInt(args[++i]);
+                    break;
+                case "--timeout-ms":
+                    timeout = Long.parseLong(args[++i]);
+                    break;
+                case "--slow-query-ms":
+                    slowQueryMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--feed":
+                    feedPath = args[++i];
+                    break;
+                case "--feed-interval-ms":
+                    feedInterval = Long.parseLong(args[++i]);
+                    break;
+                case "--shards":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (args[i].startsWith("--") || indexPath != null) {
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    }
+                    indexPath = args[i];
+            }
+        }
+
+        SemanticClusterSearchEngine engine = new SemanticClusterSearchEngine(args[0], args[1], indexPath, shards);
+        engine.setSlowQueryThresholdMillis(slowQueryMillis);
+        SearchServer server = new SearchServer(engine, port, workers, queue, timeout);
+        if (feedPath != null) {
+            server.followFeed(new PaperFeed(feedPath), feedInterval);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down search server...");
+            server.stop(SHUTDOWN_GRACE_SECONDS);
+            try {
+                engine.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "search-server-shutdown"));
+        server.start();
+    }
+}
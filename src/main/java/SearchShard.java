@@ -0,0 +1,58 @@
+import java.io.Closeable;
+
+// One partition of the Lucene index, as the engine's query fan-out sees it. The engine sends
+// every shard the same request, each returns its own top hits under the fused ranking, and
+// the engine merges them into the global top N. Requests and hits are plain values (the
+// query text rather than a parsed Query, paper ordinals rather than doc ids), so a shard can
+// sit behind a transport, e.g. in another process that opened the same engine snapshot.
+// LocalShard is the in-process implementation.
+public interface SearchShard extends Closeable {
+    Hits search(Request request) throws Exception;
+
+    // Year, venue and author counts over every paper matching the request's query and
+    // filter, not just its top N; the engine adds up the shards' counts
+    FacetCounts countFacets(Request request) throws Exception;
+
+    class Request {
+        final String queryText;
+        final float[] queryVector;
+        final int topN;
+        final SemanticClusterSearchEngine.RankingWeights weights;
+        final SearchFilter filter;
+
+        public Request(String queryText, float[] queryVector, int topN,
+                       SemanticClusterSearchEngine.RankingWeights weights, SearchFilter filter) {
+            this.queryText = queryText;
+            this.queryVector = queryVector;
+            this.topN = topN;
+            this.weights = weights;
+            this.filter = filter;
+        }
+    }
+
+    // Paper ordinals and fused scores, best first
+    class Hits {
+        final int[] ordinals;
+        final float[] scores;
+
+        public Hits(int[] ordinals, float[] scores) {
+            if (ordinals.length != scores.length) {
+                throw new IllegalArgumentException(ordinals.length + " ordinals but " + scores.length + " scores");
+            }
+            this.ordinals = ordinals;
+            this.scores = scores;
+        }
+
+        public int size() {
+            return ordinals.length;
+        }
+
+        public int ordinal(int i) {
+            return ordinals[i];
+        }
+
+        public float score(int i) {
+            return scores[i];
+        }
+    }
+}
@@ -1,42 +1,201 @@
-import org.apache.commons.math3.ml.clustering.Clusterable;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
-import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
-import org.deeplearning4j.models.word2vec.Word2Vec;
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.ops.transforms.Transforms;
 
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import javax.management.ObjectName;
+
+// Searches are thread-safe: once constructed, any number of threads may call
+// semanticSearchWithClustering concurrently.
+//
+// The Lucene index is split into shards by hash of the paper id (see LocalShard). A keyword
+// query fans out to every shard on a thread pool, each shard returns its top N under the
+// fused ranking, and the engine merges them into the global top N. Paper metadata,
+// embeddings, the HNSW graph and PageRank stay global and ordinal-addressed: PageRank needs
+// the whole citation graph, and clustering needs the metadata and vectors of the results.
+//
+// The corpus can change while searches run: ingest() applies papers added, replaced or
+// deleted in an ingestion feed through the shards' long-lived IndexWriters, updates
+// embeddings and PageRank in place and then refreshes the near-real-time searchers.
+public class SemanticClusterSearchEngine implements Closeable {
+    // Bump whenever the indexed fields change so existing on-disk indexes get rebuilt
+    private static final String INDEX_FORMAT_VERSION = "4";
+    private static final String FINGERPRINT_KEY = "datasetFingerprint";
+    private static final String FORMAT_KEY = "indexFormat";
+    // "<shard>/<shard count>", so a shard is only reused with the same partitioning
+    private static final String SHARD_KEY = "shard";
+    // Hash of the paper ids in ordinal order (see ordinalOrderHash)
+    private static final String ORDINALS_KEY = "ordinalOrder";
+    // Doc value read at query time instead of stored fields; PageRank is looked up by it
+    static final String ORDINAL_FIELD = "ordinal";
+    // Filter and facet fields (see SearchFilter, FacetCounts): year as a point plus numeric
+    // doc values, venue as a keyword plus sorted doc values, and one keyword plus one sorted
+    // set doc value per author
+    static final String YEAR_FIELD = "year";
+    static final String VENUE_FIELD = "venue";
+    static final String AUTHORS_FIELD = "authors";
+
+    private static final double PAGERANK_DAMPING = 0.85;
+    private static final double PAGERANK_TOLERANCE = 1e-9;
+    private static final int PAGERANK_MAX_ITERATIONS = 100;
+
+    // The HNSW graph is rebuilt in the background once this many rows, and at least this
+    // fraction of the graph, have been ingested since it was built; until then search()
+    // scans them exhaustively
+    private static final int HNSW_REBUILD_MIN_ROWS = 10_000;
+    private static final double HNSW_REBUILD_FRACTION = 0.05;
+
+    private static final String HNSW_FILE = "hnsw.bin";
+    // Memory-mapped string arena of the paper store, rewritten on every start
+    private static final String PAPER_ARENA_FILE = "papers.arena";
+
+    // Query cache bounds: entry counts and approximate sizes per level
+    private static final int EMBEDDING_CACHE_ENTRIES = 10_000;
+    private static final long EMBEDDING_CACHE_BYTES = 32L << 20;
+    private static final int CANDIDATE_CACHE_ENTRIES = 2_000;
+    private static final long CANDIDATE_CACHE_BYTES = 64L << 20;
+    private static final int RESULT_CACHE_ENTRIES = 1_000;
+    private static final long RESULT_CACHE_BYTES = 16L << 20;
+    private static final int FACET_CACHE_ENTRIES = 1_000;
+    private static final long FACET_CACHE_BYTES = 16L << 20;
+
+    // Values kept per facet dimension
+    private static final int FACET_LIMIT = 10;
+
+    // Result clustering. Fixed seed so the same results always cluster the same way; mini-batch
+    // updates only pay off for result sets far larger than the usual top 20.
+    private static final long KMEANS_SEED = 42;
+    private static final int KMEANS_MAX_ITERATIONS = 100;
+    private static final double KMEANS_TOLERANCE = 1e-4;
+    // Defaults for configureClustering
+    private static final int KMEANS_MINI_BATCH_MIN_POINTS = 1_000;
+    private static final int KMEANS_MINI_BATCH_SIZE = 512;
+    // numClusters <= 0 picks k in [2, AUTO_K_MAX] by silhouette on at most AUTO_K_SAMPLE results
+    private static final int AUTO_K_MAX = 10;
+    private static final int AUTO_K_SAMPLE = 500;
+    private static final int CLUSTER_TOP_TERMS = 5;
+    private static final int CLUSTER_LABEL_TERMS = 3;
+
+    // Embedding-first searches take this many nearest neighbours per requested result, so
+    // PageRank (and lexical matches in hybrid mode) can still reorder them
+    private static final int ANN_CANDIDATES_PER_RESULT = 10;
+
+    // searchBatch works through its queries this many at a time
+    private static final int BATCH_CHUNK_SIZE = 256;
 
-public class SemanticClusterSearchEngine {
-    private Directory index;
     private StandardAnalyzer analyzer;
-    private Word2Vec word2VecModel;
-    private Map<String, Paper> paperIndex;
+    // The index partitions, open for the engine's lifetime; papers go to shardFor(paper)
+    private List<LocalShard> shards;
+    // What queries fan out to: the local shards unless setSearchShards replaced them
+    private volatile List<SearchShard> searchShards;
+    // Runs one shard search per task; null with a single shard, which is searched inline
+    private ExecutorService shardPool;
+    // Parallel k-means assignment for every search; one pool for the engine's lifetime
+    private final ForkJoinPool clusteringPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    // Runs searchBatch chunks, whose parallel streams then use its workers; kept apart from
+    // clusteringPool so a long batch does not hold up interactive searches' k-means
+    private final ForkJoinPool batchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Three cache levels in front of semanticSearchWithClustering:
+    //   query tokens -> query embedding (independent of the index, so never invalidated)
+    //   (mode, topN, weights, filter, query) -> top N scored candidates
+    //   (mode, topN, numClusters, weights, filter, query) -> clustered result
+    // plus (mode, topN, filter, query) -> facet counts for facetedSearch. All but the first
+    // are invalidated whenever a shard's searcher is refreshed onto a changed index. Their keys
+    // are SearchKeys, compared field by field, since no separator is safe to join free-text
+    // venues, authors and queries with.
+    private final QueryCache<String, float[]> embeddingCache = new QueryCache<>("embedding",
+            EMBEDDING_CACHE_ENTRIES, EMBEDDING_CACHE_BYTES, (key, vector) -> 2L * key.length() + 4L * vector.length);
+    private final QueryCache<SearchKey, List<PaperScore>> candidateCache = new QueryCache<>("candidate",
+            CANDIDATE_CACHE_ENTRIES, CANDIDATE_CACHE_BYTES, (key, ranked) -> key.bytes() + 40L * ranked.size());
+    private final QueryCache<SearchKey, List<ResultCluster>> resultCache = new QueryCache<>("result",
+            RESULT_CACHE_ENTRIES, RESULT_CACHE_BYTES, (key, clusters) -> {
+                long bytes = key.bytes();
+                for (ResultCluster cluster : clusters) {
+                    bytes += 64L + 8L * cluster.papers.size() + 2L * cluster.label.length();
+                    for (String term : cluster.topTerms) {
+                        bytes += 48L + 2L * term.length();
+                    }
+                }
+                return bytes;
+            });
+    private final QueryCache<SearchKey, FacetCounts> facetCache = new QueryCache<>("facet",
+            FACET_CACHE_ENTRIES, FACET_CACHE_BYTES, (key, facets) -> key.bytes() + 96L * facets.valueCount());
+    private WordVectors wordVectors;
+    // Paper metadata by ordinal; row i of embeddings is the title vector of paper i
+    private PaperStore store;
+    private EmbeddingMatrix embeddings;
+    // Current PageRank scores, replaced as a whole whenever they are recomputed
+    private volatile PageRankColumn pageRanks;
+    // Serialises corpus changes (ingest, index rebuilds) and snapshot writes
+    private final Object ingestLock = new Object();
+    // Approximate nearest-neighbour graph over embeddings, built or loaded on first use. Read
+    // without locking by searches; replaced under vectorIndexLock, which is only ever held
+    // briefly. The first load or build runs under vectorIndexBuildLock instead, so it holds up
+    // only the searches that need the graph, not configureVectorIndex or a rebuild swap.
+    private volatile HnswIndex vectorIndex;
+    private final Object vectorIndexLock = new Object();
+    private final Object vectorIndexBuildLock = new Object();
+    // Bumped by configureVectorIndex, so a graph built with the old parameters is not installed
+    private int vectorIndexGeneration;
+    private boolean rebuildingVectorIndex;
+    private int hnswM = 16;
+    private int hnswEfConstruction = 200;
+    private volatile int hnswEfSearch = 100;
+    // Result sets of at least this many papers are clustered with mini-batch k-means
+    private volatile int kMeansMiniBatchMinPoints = KMEANS_MINI_BATCH_MIN_POINTS;
+    private volatile int kMeansMiniBatchSize = KMEANS_MINI_BATCH_SIZE;
 
-    // Paper representation class
+    // Per-stage query timers, counters and ingestion rates; see metrics()
+    private final Metrics metrics = new Metrics("semantic_search");
+    private ObjectName metricsMBean;
+    // Searches slower than this are logged with their stage breakdown; negative turns it off
+    private volatile long slowQueryNanos = -1;
+    // Set only for on-disk indexes; shard i lives in shard-<i>, the HNSW graph next to them
+    private Path indexDir;
+    // SHA-256 of the whole text dataset file, taken while it is loaded; carried over into
+    // snapshots written from this engine
+    private String datasetFingerprint;
+    // Open while the engine runs when it was started from a snapshot, which pages in lazily
+    private EngineSnapshot.Reader snapshot;
+    // Running SHA-256 over the ids of ordinals [0, ordinalDigestRows); guarded by itself
+    private final MessageDigest ordinalDigest = sha256();
+    private int ordinalDigestRows;
+
+    // One paper's metadata. The engine keeps papers in a columnar PaperStore; Paper objects
+    // are materialised from it only for results and while loading.
     public static class Paper {
         String id;
         String title;
@@ -45,7 +204,7 @@ public class SemanticClusterSearchEngine {
         String venue;
         String abstractPaper;
         List<String> references;
-        double[] semanticVector;
+        int ordinal;
         double pageRankScore;
 
         // Getters and toString for debugging
@@ -56,296 +215,1453 @@ public class SemanticClusterSearchEngine {
         }
     }
 
-    // Wrapper class to make Paper clusterable
-    private static class ClusterablePaper implements Clusterable {
-        private final Paper paper;
-        private final double[] vector;
+    // PageRank by ordinal together with its largest value, which bounds the fused score for
+    // early termination in Lucene; a search reads both from the same instance
+    static class PageRankColumn {
+        final double[] scores;
+        final double max;
+
+        PageRankColumn(double[] scores) {
+            double max = 0;
+            for (double score : scores) {
+                max = Math.max(max, score);
+            }
+            this.scores = scores;
+            this.max = max;
+        }
+
+        double score(int ordinal) {
+            return ordinal < scores.length ? scores[ordinal] : 0;
+        }
+    }
+
+    // One group of clustered results; papers keep their ranking order within the cluster
+    public static class ResultCluster {
+        final List<Paper> papers;
+        // The top few terms joined, for display
+        final String label;
+        // Title terms most characteristic of this cluster relative to the whole result set
+        final List<String> topTerms;
 
-        public ClusterablePaper(Paper paper, double[] vector) {
-            this.paper = paper;
-            this.vector = vector;
+        ResultCluster(List<Paper> papers, String label, List<String> topTerms) {
+            this.papers = papers;
+            this.label = label;
+            this.topTerms = topTerms;
         }
 
         @Override
-        public double[] getPoint() {
-            return vector;
+        public String toString() {
+            return String.format("ResultCluster{label='%s', papers=%d}", label, papers.size());
         }
+    }
+
+    // Per-query weights of the fused ranking score:
+    //   lexical * Lucene score + semantic * cosine(title, query) + pageRank * PageRank
+    public static class RankingWeights {
+        public static final RankingWeights DEFAULT = new RankingWeights(0.5, 0.2, 0.3);
+
+        final double lexical;
+        final double semantic;
+        final double pageRank;
 
-        public Paper getPaper() {
-            return paper;
+        public RankingWeights(double lexical, double semantic, double pageRank) {
+            for (double weight : new double[]{lexical, semantic, pageRank}) {
+                // Negative weights would break the score bounds Lucene uses to skip documents
+                if (!(weight >= 0) || Double.isInfinite(weight)) {
+                    throw new IllegalArgumentException("Ranking weights must be finite and non-negative: "
+                            + lexical + ", " + semantic + ", " + pageRank);
+                }
+            }
+            this.lexical = lexical;
+            this.semantic = semantic;
+            this.pageRank = pageRank;
+        }
+
+        double combine(double lexicalScore, double semanticScore, double pageRankScore) {
+            return lexical * lexicalScore + semantic * semanticScore + pageRank * pageRankScore;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RankingWeights)) {
+                return false;
+            }
+            RankingWeights other = (RankingWeights) o;
+            return lexical == other.lexical && semantic == other.semantic && pageRank == other.pageRank;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lexical, semantic, pageRank);
+        }
+
+        @Override
+        public String toString() {
+            return "lexical=" + lexical + ", semantic=" + semantic + ", pageRank=" + pageRank;
         }
     }
 
+    // Where the candidates for scoring and clustering come from
+    public enum SearchMode {
+        // Lucene keyword matches on the title
+        LEXICAL,
+        // Nearest title embeddings from the HNSW index; needs no keyword overlap
+        SEMANTIC,
+        // Union of the lexical and semantic candidates
+        HYBRID
+    }
+
     public SemanticClusterSearchEngine(String datasetPath, String word2vecModelPath) throws Exception {
+        this(datasetPath, word2vecModelPath, null);
+    }
+
+    // When indexPath is given the Lucene index lives on disk behind an MMapDirectory and is
+    // reused across restarts as long as the dataset fingerprint still matches; otherwise the
+    // index is built in memory for this process only.
+    //
+    // A datasetPath ending in EngineSnapshot.EXTENSION is opened as a snapshot written by
+    // writeSnapshot: papers, PageRank and embeddings are mapped from it instead of being
+    // parsed and recomputed, and only a missing or stale Lucene index is rebuilt.
+    public SemanticClusterSearchEngine(String datasetPath, String word2vecModelPath, String indexPath) throws Exception {
+        this(datasetPath, word2vecModelPath, indexPath, 1);
+    }
+
+    // Splits the Lucene index into shardCount shards. Each on-disk shard is reused only if it
+    // was built from the same dataset, with the same shard count and paper ordinals.
+    public SemanticClusterSearchEngine(String datasetPath, String word2vecModelPath, String indexPath,
+                                       int shardCount) throws Exception {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
         // Initialize Lucene components
         analyzer = new StandardAnalyzer();
-        index = new RAMDirectory();
-        paperIndex = new HashMap<>();
 
-        // Load Word2Vec model
+        if (datasetPath.endsWith(EngineSnapshot.EXTENSION)) {
+            snapshot = EngineSnapshot.open(Paths.get(datasetPath));
+            datasetFingerprint = snapshot.meta(FINGERPRINT_KEY);
+        }
+        if (indexPath != null) {
+            Path indexDir = Paths.get(indexPath);
+            Files.createDirectories(indexDir);
+            // Keep paper text in the page cache rather than on the heap
+            if (snapshot == null) {
+                store = PaperStore.mapped(indexDir.resolve(PAPER_ARENA_FILE));
+            }
+            this.indexDir = indexDir;
+        } else if (snapshot == null) {
+            store = PaperStore.onHeap();
+        }
+
+        // Load word vectors: a compact .wvs store (see WordVectorStore) is memory-mapped,
+        // anything else is read as a full Word2Vec model
         System.out.println("Loading Word2Vec model...");
-        word2VecModel = WordVectorSerializer.readWord2VecModel(new File(word2vecModelPath));
+        long start = System.nanoTime();
+        if (word2vecModelPath.endsWith(".wvs")) {
+            wordVectors = WordVectorStore.open(word2vecModelPath);
+        } else {
+            wordVectors = WordVectors.fromWord2Vec(WordVectorSerializer.readWord2VecModel(new File(word2vecModelPath)));
+        }
+        metrics.setGauge("ingest_word_vectors_seconds", (System.nanoTime() - start) / 1e9);
         System.out.println("Word2Vec model loaded.");
-        // Load and index papers
-        loadPapers(datasetPath);
-        createLuceneIndex();
-        computePageRankScores();
+        if (snapshot != null) {
+            openSnapshot();
+        } else {
+            embeddings = new EmbeddingMatrix(wordVectors.dimension(), 1024);
+            // Load and index papers
+            loadPapers(datasetPath);
+            computePageRankScores();
+        }
+        if (openShards(shardCount)) {
+            System.out.println("Reusing existing Lucene index at " + indexPath + ".");
+        } else {
+            createLuceneIndex(datasetFingerprint);
+        }
+        if (shardCount > 1) {
+            shardPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "shard-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        registerMetrics();
     }
 
-    private void loadPapers(String datasetPath) throws Exception {
-        try (BufferedReader br = new BufferedReader(new FileReader(datasetPath))) {
-            Paper currentPaper = null;
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("#*")) {
-                    if (currentPaper != null) {
-                        paperIndex.put(currentPaper.id, currentPaper);
-                    }
-                    currentPaper = new Paper();
-                    currentPaper.title = line.substring(2).trim();
-                } else if (line.startsWith("#@")) {
-                    currentPaper.authors = line.substring(2).trim();
-                } else if (line.startsWith("#t")) {
-                    currentPaper.year = line.substring(2).trim();
-                } else if (line.startsWith("#c")) {
-                    currentPaper.venue = line.substring(2).trim();
-                } else if (line.startsWith("#index")) {
-                    currentPaper.id = line.substring(6).trim();
-                } else if (line.startsWith("#%")) {
-                    if (currentPaper.references == null) {
-                        currentPaper.references = new ArrayList<>();
-                    }
-                    currentPaper.references.add(line.substring(2).trim());
-                } else if (line.startsWith("#!")) {
-                    currentPaper.abstractPaper = line.substring(2).trim();
-                    // Compute semantic vector
-                    currentPaper.semanticVector = computeSemanticVector(currentPaper.title);
-                }
+    // Opens every shard, and returns whether all of them hold a current index; otherwise
+    // they are all opened empty and the caller rebuilds them
+    private boolean openShards(int shardCount) throws IOException {
+        Directory[] directories = new Directory[shardCount];
+        boolean reusable = indexDir != null;
+        String ordinals = ordinalOrderHash();
+        for (int i = 0; i < shardCount; i++) {
+            if (indexDir != null) {
+                Path shardDir = indexDir.resolve("shard-" + i);
+                Files.createDirectories(shardDir);
+                directories[i] = new MMapDirectory(shardDir);
+                reusable &= commitData(datasetFingerprint, ordinals, i, shardCount).equals(LocalShard.commitData(directories[i]));
+            } else {
+                directories[i] = new ByteBuffersDirectory();
             }
-            // Add last paper
-            if (currentPaper != null) {
-                paperIndex.put(currentPaper.id, currentPaper);
+        }
+        List<LocalShard> opened = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            opened.add(new LocalShard(i, directories[i], analyzer, !reusable, embeddings, () -> pageRanks,
+                    this::invalidateSearchCaches));
+        }
+        shards = Collections.unmodifiableList(opened);
+        searchShards = new ArrayList<>(shards);
+        return reusable;
+    }
+
+    // Papers are spread by id, so a replacement or deletion goes to the shard that has the paper
+    private LocalShard shardFor(Paper paper) {
+        return paper.id == null ? shards.get(paper.ordinal % shards.size()) : shardFor(paper.id);
+    }
+
+    private LocalShard shardFor(String id) {
+        return shards.get(Math.floorMod(id.hashCode(), shards.size()));
+    }
+
+    // Sends queries to the given shards instead of the local ones, e.g. proxies to processes
+    // serving copies of the same partitions; shard i must hold the papers of local shard i.
+    // Writes (ingest) still go to the local shards only.
+    public void setSearchShards(List<? extends SearchShard> replacements) {
+        if (replacements.size() != shards.size()) {
+            throw new IllegalArgumentException("Expected " + shards.size() + " shards, got " + replacements.size());
+        }
+        searchShards = new ArrayList<>(replacements);
+        invalidateSearchCaches();
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    private void registerMetrics() {
+        for (QueryCache<?, ?> cache : Arrays.asList(embeddingCache, candidateCache, resultCache, facetCache)) {
+            String name = cache.stats().getName();
+            metrics.gauge("cache_" + name + "_hit_ratio", () -> cache.stats().hitRate());
+            metrics.gauge("cache_" + name + "_entries", () -> cache.stats().getEntries());
+        }
+        metrics.gauge("papers", () -> store.size() - store.deletedCount());
+        metrics.gauge("shards", () -> shards.size());
+        metrics.gauge("paper_store_heap_bytes", () -> store.heapBytes());
+        metrics.gauge("paper_store_arena_bytes", () -> store.arenaBytes());
+        try {
+            metricsMBean = metrics.register(getClass().getSimpleName());
+        } catch (Exception e) {
+            // JMX is a convenience; the Prometheus dump still works without it
+            System.err.println("Could not register metrics MBean: " + e);
+        }
+    }
+
+    // Per-stage search latency histograms (search, embed, lucene_search across all shards,
+    // shard_search per shard, shard_merge, ann_search, ranking, kmeans, cluster_labels, and
+    // facets for facetedSearch cache misses), counters (queries,
+    // candidates_scored, lucene_hits, query_words, oov_query_words, kmeans_iterations,
+    // slow_queries), per-chunk searchBatch stages (batch_embed, batch_retrieve, batch_cluster)
+    // and batch_queries, ingestion timings and rates, online ingestion (ingest, ingest_apply,
+    // ingest_pagerank, ingest_refresh timers and ingest_added, ingest_updated, ingest_deleted
+    // counters), and cache hit ratios.
+    // Also registered over JMX as SemanticClusterSearchEngine:type=Metrics.
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    // Logs every search slower than the threshold with its per-stage breakdown; pass a
+    // negative value to turn the log off (the default)
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryNanos = millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private void invalidateSearchCaches() {
+        candidateCache.invalidateAll();
+        resultCache.invalidateAll();
+        facetCache.invalidateAll();
+    }
+
+    // Hit, miss and eviction counters for each cache level
+    public List<QueryCache.Stats> cacheStats() {
+        return Arrays.asList(embeddingCache.stats(), candidateCache.stats(), resultCache.stats(),
+                facetCache.stats());
+    }
+
+    // Lets each query search index segments in parallel on the given executor (null turns
+    // this off). Meant to be called once before serving queries, since it swaps the
+    // shards' SearcherManagers out from under any search that is about to acquire from them.
+    public void setSearchExecutor(Executor executor) throws IOException {
+        for (LocalShard shard : shards) {
+            shard.setSearchExecutor(executor);
+        }
+    }
+
+    // Makes changes written to the index since the last refresh visible to new searches
+    public void refresh() throws IOException {
+        for (LocalShard shard : shards) {
+            shard.refresh();
+        }
+    }
+
+    // Makes ingested changes durable in an on-disk index. The commit records the current
+    // corpus fingerprint, so only a restart from a snapshot of this state reuses the index.
+    public void commit() throws IOException {
+        synchronized (ingestLock) {
+            for (LocalShard shard : shards) {
+                shard.setCommitData(commitData(datasetFingerprint, ordinalOrderHash(), shard.getNumber(), shards.size()));
+                shard.commit();
             }
         }
     }
 
-    private double[] computeSemanticVector(String text) {
-        String[] words = text.toLowerCase().split("\\s+");
-        List<INDArray> wordVectors = new ArrayList<>();
+    @Override
+    public void close() throws IOException {
+        Metrics.unregister(metricsMBean);
+        if (shardPool != null) {
+            shardPool.shutdownNow();
+        }
+        clusteringPool.shutdownNow();
+        batchPool.shutdownNow();
+        synchronized (ingestLock) {
+            for (LocalShard shard : shards) {
+                shard.setCommitData(commitData(datasetFingerprint, ordinalOrderHash(), shard.getNumber(), shards.size()));
+                // Commits whatever was ingested since the last commit
+                shard.close();
+            }
+        }
+        store.close();
+        if (snapshot != null) {
+            snapshot.close();
+        }
+    }
+
+    // Writes papers, PageRank and embeddings as a snapshot that the constructor can start
+    // from (see EngineSnapshot). The file is written next to its target and moved into place.
+    // The index is committed at the same state, so a restart from the snapshot can reuse it.
+    public void writeSnapshot(Path file) throws IOException {
+        System.out.println("Writing engine snapshot to " + file + "...");
+        long start = System.nanoTime();
+        synchronized (ingestLock) {
+            try (EngineSnapshot.Writer writer = EngineSnapshot.create(file)) {
+                writer.meta(FINGERPRINT_KEY, datasetFingerprint);
+                store.writeTo(writer);
+                embeddings.writeTo(writer);
+                writer.commit();
+            }
+            commit();
+        }
+        metrics.setGauge("snapshot_write_seconds", (System.nanoTime() - start) / 1e9);
+        System.out.println("Engine snapshot written.");
+    }
+
+    private void openSnapshot() throws IOException {
+        System.out.println("Opening engine snapshot " + snapshot.file() + "...");
+        long start = System.nanoTime();
+        store = PaperStore.open(snapshot);
+        embeddings = EmbeddingMatrix.open(snapshot);
+        if (embeddings.dimension() != wordVectors.dimension() || embeddings.rows() != store.size()) {
+            throw new IOException("Snapshot holds " + embeddings.rows() + " x " + embeddings.dimension()
+                    + " embeddings for " + store.size() + " papers, but the word vectors have "
+                    + wordVectors.dimension() + " dimensions");
+        }
+        double[] scores = new double[store.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = store.pageRank(i);
+        }
+        pageRanks = new PageRankColumn(scores);
+        metrics.setGauge("ingest_snapshot_open_seconds", (System.nanoTime() - start) / 1e9);
+        System.out.println("Engine snapshot opened with " + store.size() + " papers.");
+    }
+
+    // Fingerprint of the corpus after applying changes to the one identified by fingerprint,
+    // so an index committed after ingestion is only reused with the matching snapshot
+    private static String ingestedFingerprint(String fingerprint, List<PaperFeed.Change> changes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(fingerprint.getBytes(StandardCharsets.US_ASCII));
+            for (PaperFeed.Change change : changes) {
+                Paper paper = change.paper;
+                String text = change.isDelete() ? "-" + change.deletedId + "\n"
+                        : String.join("\n", "+" + paper.id, String.valueOf(paper.title),
+                                String.valueOf(paper.abstractPaper), String.valueOf(paper.authors),
+                                String.valueOf(paper.year), String.valueOf(paper.venue),
+                                String.valueOf(paper.references), "");
+                digest.update(text.getBytes(StandardCharsets.UTF_8));
+            }
+            return hex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
 
-        for (String word : words) {
-            if (word2VecModel.hasWord(word)) {
-                wordVectors.add(word2VecModel.getWordVectorMatrix(word));
+    // Documents (ORDINAL_FIELD) and the HNSW graph address papers by ordinal, so they are
+    // only reusable over the same numbering. The loader numbers a text dataset in file order,
+    // but a snapshot keeps the numbering of the engine that wrote it, which need not be the
+    // one an index next to it was built with. Extended incrementally: ingestion only appends
+    // ordinals, and a replaced paper keeps its ordinal and id.
+    private String ordinalOrderHash() {
+        synchronized (ordinalDigest) {
+            for (int size = store.size(); ordinalDigestRows < size; ordinalDigestRows++) {
+                ordinalDigest.update((store.id(ordinalDigestRows) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            try {
+                return hex(((MessageDigest) ordinalDigest.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("SHA-256 digest cannot be cloned", e);
             }
         }
+    }
 
-        if (wordVectors.isEmpty()) {
-            return new double[word2VecModel.getLayerSize()];
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
+    }
 
-        // Average word vectors
-        INDArray documentVector = Nd4j.mean(Nd4j.vstack(wordVectors), 0);
-        return documentVector.toDoubleVector();
+    // Records what a shard was built from so the next start can reuse it
+    private static Map<String, String> commitData(String fingerprint, String ordinals, int shard, int shardCount) {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(FORMAT_KEY, INDEX_FORMAT_VERSION);
+        commitData.put(SHARD_KEY, shard + "/" + shardCount);
+        commitData.put(ORDINALS_KEY, ordinals);
+        if (fingerprint != null) {
+            commitData.put(FINGERPRINT_KEY, fingerprint);
+        }
+        return commitData;
     }
 
-    private void createLuceneIndex() throws Exception {
+    private void loadPapers(String datasetPath) throws Exception {
+        System.out.println("Loading papers...");
+        PaperLoader.Stats stats = new PaperLoader(this::computeSemanticVector).load(datasetPath, (paper, vector) -> {
+            // A repeated id replaces the earlier record but keeps its ordinal
+            int ordinal = store.put(paper);
+            if (ordinal < embeddings.rows()) {
+                embeddings.set(ordinal, vector);
+            } else {
+                embeddings.add(vector);
+            }
+        });
+        embeddings.trim();
+        // Hashed while the loader read it, so a changed byte anywhere rebuilds the index
+        datasetFingerprint = stats.getSha256();
+        metrics.setGauge("ingest_load_papers_seconds", stats.getWallNanos() / 1e9);
+        metrics.setGauge("ingest_load_papers_per_second", stats.papersPerSecond());
+        metrics.setGauge("ingest_load_bytes_per_second", stats.getBytes() * 1e9 / Math.max(1, stats.getWallNanos()));
+        System.out.println("Papers loaded: " + stats);
+    }
+
+    // Lower-cased whitespace tokens, shared by document/query embedding and the
+    // WordVectorStore conversion tool so both agree on the vocabulary
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String word : text.toLowerCase().split("\\s+")) {
+            if (!word.isEmpty()) {
+                tokens.add(word);
+            }
+        }
+        return tokens;
+    }
+
+    // Mean of the known word vectors, L2-normalised (all zeros when no word is known)
+    private float[] computeSemanticVector(String text) {
+        double[] documentVector = new double[wordVectors.dimension()];
+        for (String word : tokenize(text)) {
+            wordVectors.accumulate(word, documentVector);
+        }
+
+        // Averaging only scales the sum, so normalising the sum gives the same direction
+        return EmbeddingMatrix.normalize(documentVector);
+    }
+
+    private void createLuceneIndex(String fingerprint) throws Exception {
         System.out.println("Creating Lucene index...");
-        int paperCount = paperIndex.size();
-        int processedCount = 0;
+        long start = System.nanoTime();
+        int paperCount = store.size();
 
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        try (IndexWriter w = new IndexWriter(index, config)) {
-            for (Paper paper : paperIndex.values()) {
-                Document doc = new Document();
+        // Stale on-disk indexes are replaced wholesale rather than appended to
+        for (LocalShard shard : shards) {
+            shard.deleteAll();
+        }
+        int documentCount = 0;
+        for (int ordinal = 0; ordinal < paperCount; ordinal++) {
+            if (!store.isDeleted(ordinal)) {
+                Paper paper = store.paper(ordinal);
+                shardFor(paper).add(paperDocument(paper));
+                documentCount++;
+            }
+        }
+        for (LocalShard shard : shards) {
+            shard.setCommitData(commitData(fingerprint, ordinalOrderHash(), shard.getNumber(), shards.size()));
+            shard.commit();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        metrics.setGauge("ingest_index_seconds", seconds);
+        metrics.setGauge("ingest_index_docs_per_second", documentCount / Math.max(seconds, 1e-9));
+        System.out.println("Lucene index created with " + documentCount + " documents.");
+    }
+
+    private static Document paperDocument(Paper paper) {
+        Document doc = new Document();
 
-                // Add fields with null checks
-                if (paper.id != null) {
-                    doc.add(new StringField("id", paper.id, Field.Store.YES));
+        // Add fields with null checks
+        if (paper.id != null) {
+            doc.add(new StringField("id", paper.id, Field.Store.YES));
+        }
+        if (paper.title != null) {
+            doc.add(new TextField("title", paper.title, Field.Store.YES));
+        } else {
+            doc.add(new TextField("title", "", Field.Store.YES)); // Default empty title if null
+        }
+        if (paper.abstractPaper != null) {
+            doc.add(new TextField("abstractPaper", paper.abstractPaper, Field.Store.YES));
+        } else {
+            doc.add(new TextField("abstractPaper", "", Field.Store.YES)); // Default empty abstract if null
+        }
+        // One keyword per author rather than the joined list, so a single author can be matched
+        if (paper.authors != null) {
+            for (String name : paper.authors.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty()) {
+                    doc.add(new StringField(AUTHORS_FIELD, name, Field.Store.YES));
+                    doc.add(new SortedSetDocValuesField(AUTHORS_FIELD, new BytesRef(name)));
                 }
-                if (paper.title != null) {
-                    doc.add(new TextField("title", paper.title, Field.Store.YES));
-                } else {
-                    doc.add(new TextField("title", "", Field.Store.YES)); // Default empty title if null
+            }
+        }
+        Integer year = yearValue(paper.year);
+        if (year != null) {
+            doc.add(new IntPoint(YEAR_FIELD, year));
+            doc.add(new NumericDocValuesField(YEAR_FIELD, year));
+            doc.add(new StoredField(YEAR_FIELD, year));
+        }
+        if (paper.venue != null && !paper.venue.isEmpty()) {
+            doc.add(new StringField(VENUE_FIELD, paper.venue, Field.Store.YES));
+            doc.add(new SortedDocValuesField(VENUE_FIELD, new BytesRef(paper.venue)));
+        }
+        // Column-stride value for ranking, so queries never load stored fields
+        doc.add(new NumericDocValuesField(ORDINAL_FIELD, paper.ordinal));
+        return doc;
+    }
+
+    // The year as a number, or null when it is missing or not an integer
+    static Integer yearValue(String year) {
+        if (year == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(year.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Applies feed changes in order: a put adds a new paper or replaces the one with the same
+    // id (keeping its ordinal), a delete removes a paper. Store and embeddings are updated
+    // before the index, so any ordinal a refreshed searcher returns is already resolvable.
+    // PageRank is recomputed warm-started from the current scores, and the changes become
+    // visible to searches when this returns. Calls are serialised; searches keep running.
+    public void ingest(List<PaperFeed.Change> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Metrics.Trace trace = metrics.trace();
+        long start = System.nanoTime();
+        synchronized (ingestLock) {
+            int added = 0;
+            int updated = 0;
+            int deleted = 0;
+            for (PaperFeed.Change change : changes) {
+                if (change.isDelete()) {
+                    int ordinal = store.ordinal(change.deletedId);
+                    if (ordinal >= 0 && !store.isDeleted(ordinal)) {
+                        store.delete(ordinal);
+                        shardFor(change.deletedId).delete(change.deletedId);
+                        deleted++;
+                    }
+                    continue;
                 }
-                if (paper.abstractPaper != null) {
-                    doc.add(new TextField("abstractPaper", paper.abstractPaper, Field.Store.YES));
+                Paper paper = change.paper;
+                float[] vector = computeSemanticVector(paper.title == null ? "" : paper.title);
+                int existing = store.ordinal(paper.id);
+                boolean replaced = existing >= 0 && !store.isDeleted(existing);
+                int ordinal = store.put(paper);
+                if (ordinal < embeddings.rows()) {
+                    embeddings.set(ordinal, vector);
                 } else {
-                    doc.add(new TextField("abstractPaper", "", Field.Store.YES)); // Default empty abstract if null
+                    embeddings.add(vector);
                 }
-                if (paper.authors != null) {
-                    doc.add(new StringField("authors", paper.authors, Field.Store.YES));
+                shardFor(paper.id).update(paper.id, paperDocument(store.paper(ordinal)));
+                if (replaced) {
+                    updated++;
                 } else {
-                    doc.add(new StringField("authors", "", Field.Store.YES)); // Default empty authors if null
+                    added++;
                 }
-                if (paper.year != null) {
-                    doc.add(new StringField("year", paper.year, Field.Store.YES));
-                } else {
-                    doc.add(new StringField("year", "", Field.Store.YES)); // Default empty year if null
+            }
+            start = trace.stage("ingest_apply", start);
+
+            computePageRankScores(pageRanks.scores);
+            start = trace.stage("ingest_pagerank", start);
+
+            datasetFingerprint = ingestedFingerprint(datasetFingerprint, changes);
+            for (LocalShard shard : shards) {
+                shard.setCommitData(commitData(datasetFingerprint, ordinalOrderHash(), shard.getNumber(), shards.size()));
+            }
+            // Also invalidates the search caches (see LocalShard)
+            refresh();
+            trace.stage("ingest_refresh", start);
+
+            metrics.increment("ingest_added", added);
+            metrics.increment("ingest_updated", updated);
+            metrics.increment("ingest_deleted", deleted);
+            System.out.println("Ingested " + added + " new, " + updated + " replaced and "
+                    + deleted + " deleted papers.");
+        }
+        maybeRebuildVectorIndex();
+        metrics.timer("ingest").record(trace.elapsedNanos());
+    }
+
+    private void computePageRankScores() {
+        computePageRankScores(null);
+    }
+
+    // PageRank over the papers that are not deleted. With previous scores (by ordinal) the
+    // power iteration starts from them, so a small batch of changes converges in a few
+    // iterations; papers that had no score yet start from the uniform value.
+    private void computePageRankScores(double[] previous) {
+        System.out.println("Computing PageRank...");
+        long start = System.nanoTime();
+
+        // Deleted papers drop out of the graph, so live papers are renumbered densely
+        int paperCount = store.size();
+        int[] nodes = new int[paperCount];
+        int[] ordinals = new int[paperCount];
+        int nodeCount = 0;
+        for (int i = 0; i < paperCount; i++) {
+            if (store.isDeleted(i)) {
+                nodes[i] = -1;
+            } else {
+                nodes[i] = nodeCount;
+                ordinals[nodeCount++] = i;
+            }
+        }
+
+        // Collect citation edges, dropping duplicates and references outside the dataset
+        int[] sources = new int[Math.max(16, nodeCount)];
+        int[] targets = new int[sources.length];
+        int edgeCount = 0;
+        int[] cited = new int[16];
+        for (int node = 0; node < nodeCount; node++) {
+            int i = ordinals[node];
+            int referenceCount = store.referenceCount(i);
+            if (referenceCount > cited.length) {
+                cited = new int[Math.max(referenceCount, cited.length * 2)];
+            }
+            int citedCount = 0;
+            for (int r = 0; r < referenceCount; r++) {
+                int target = store.citedOrdinal(i, r);
+                if (target >= 0 && nodes[target] >= 0) {
+                    cited[citedCount++] = nodes[target];
                 }
-                if (paper.venue != null) {
-                    doc.add(new StringField("venue", paper.venue, Field.Store.YES));
-                } else {
-                    doc.add(new StringField("venue", "", Field.Store.YES)); // Default empty venue if null
+            }
+            Arrays.sort(cited, 0, citedCount);
+            for (int j = 0; j < citedCount; j++) {
+                if (j > 0 && cited[j] == cited[j - 1]) {
+                    continue;
+                }
+                if (edgeCount == sources.length) {
+                    sources = Arrays.copyOf(sources, edgeCount * 2);
+                    targets = Arrays.copyOf(targets, edgeCount * 2);
                 }
+                sources[edgeCount] = node;
+                targets[edgeCount] = cited[j];
+                edgeCount++;
+            }
+        }
 
-                w.addDocument(doc);
+        PageRank.Graph graph = PageRank.Graph.fromEdges(nodeCount, sources, targets, edgeCount);
+        PageRank pageRank = new PageRank(PAGERANK_DAMPING, PAGERANK_TOLERANCE, PAGERANK_MAX_ITERATIONS);
+        PageRank.Result result = previous == null ? pageRank.compute(graph)
+                : pageRank.compute(graph, warmStart(previous, ordinals, nodeCount));
 
-                processedCount++;
-                if (processedCount % 10 == 0) {
-                    int progress = (int) ((double) processedCount / paperCount * 100);
-                    System.out.println("Progress creating Lucene index: " + progress + "%");
-                }
+        // Publish scores by ordinal; deleted papers keep 0
+        double[] nodeScores = result.getScores();
+        double[] scores = new double[paperCount];
+        for (int node = 0; node < nodeCount; node++) {
+            scores[ordinals[node]] = nodeScores[node];
+        }
+        store.setPageRanks(scores);
+        pageRanks = new PageRankColumn(scores);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        metrics.setGauge("ingest_pagerank_seconds", seconds);
+        metrics.setGauge("ingest_pagerank_edges_per_second", graph.edgeCount() / Math.max(seconds, 1e-9));
+        metrics.setGauge("ingest_pagerank_iterations", result.getIterations());
+        System.out.println("PageRank computation completed over " + graph.edgeCount() + " citations: "
+                + result.getIterations() + " iterations, residual " + result.getResidual()
+                + (result.isConverged() ? "." : " (not converged)."));
+    }
+
+    // Previous scores of the live nodes, new papers at the uniform value, summing to 1
+    private static double[] warmStart(double[] previous, int[] ordinals, int nodeCount) {
+        double[] initial = new double[nodeCount];
+        double sum = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int ordinal = ordinals[node];
+            double score = ordinal < previous.length ? previous[ordinal] : 0;
+            initial[node] = score > 0 ? score : 1.0 / nodeCount;
+            sum += initial[node];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            initial[node] /= sum;
+        }
+        return initial;
+    }
+
+    // HNSW parameters; changing them discards a graph that was built with other values
+    public void configureVectorIndex(int m, int efConstruction, int efSearch) {
+        synchronized (vectorIndexLock) {
+            if (m != hnswM || efConstruction != hnswEfConstruction) {
+                vectorIndex = null;
+                vectorIndexGeneration++;
             }
+            hnswM = m;
+            hnswEfConstruction = efConstruction;
+            hnswEfSearch = efSearch;
         }
-        System.out.println("Lucene index created with " + paperCount + " documents.");
+        invalidateSearchCaches();
     }
 
-    private void computePageRankScores() {
-    	int totalPapers = paperIndex.size();
-        int processedPapers = 0;
-    	
-        // Simplified PageRank computation
-        Map<String, Set<String>> citationGraph = new HashMap<>();
-        
-        // Build citation graph
-        for (Paper paper : paperIndex.values()) {
-            if (paper.references != null) {
-                citationGraph.put(paper.id, new HashSet<>(paper.references));
+    // Result sets of at least miniBatchMinPoints papers are clustered with mini-batch updates of
+    // miniBatchSize points instead of full Lloyd iterations; a minimum above the largest topN
+    // turns mini-batch off
+    public void configureClustering(int miniBatchMinPoints, int miniBatchSize) {
+        if (miniBatchMinPoints < 1 || miniBatchSize < 1) {
+            throw new IllegalArgumentException("miniBatchMinPoints and miniBatchSize must be positive");
+        }
+        kMeansMiniBatchMinPoints = miniBatchMinPoints;
+        kMeansMiniBatchSize = miniBatchSize;
+        invalidateSearchCaches();
+    }
+
+    // Loads the saved HNSW graph when it matches the dataset and paper numbering, otherwise
+    // builds (and saves) it
+    private HnswIndex vectorIndex() throws IOException {
+        HnswIndex index = vectorIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (vectorIndexBuildLock) {
+            int generation;
+            int m;
+            int efConstruction;
+            Path file;
+            String tag;
+            synchronized (vectorIndexLock) {
+                if (vectorIndex != null) {
+                    return vectorIndex;
+                }
+                generation = vectorIndexGeneration;
+                m = hnswM;
+                efConstruction = hnswEfConstruction;
+                file = indexDir == null ? null : indexDir.resolve(HNSW_FILE);
+                tag = vectorIndexTag();
+            }
+            HnswIndex loaded = file == null ? null : HnswIndex.load(file, embeddings, tag);
+            if (loaded == null) {
+                loaded = buildVectorIndex(file, tag, m, efConstruction);
+            }
+            synchronized (vectorIndexLock) {
+                if (vectorIndex == null && generation == vectorIndexGeneration) {
+                    vectorIndex = loaded;
+                }
             }
+            // Parameters changed during the build: this query still gets an answer, the next
+            // one builds with the new parameters
+            return loaded;
         }
+    }
 
-        // Basic iterative PageRank
-        Map<String, Double> pageRankScores = new HashMap<>();
-        double dampingFactor = 0.85;
-        int iterations = 1;
-        
-        // Initialize uniform distribution
-        for (String paperId : paperIndex.keySet()) {
-            pageRankScores.put(paperId, 1.0 / paperIndex.size());
+    // Graph nodes are paper ordinals, so the tag includes their order as well as the dataset
+    private String vectorIndexTag() {
+        return datasetFingerprint + "/" + ordinalOrderHash() + "/" + hnswM + "/" + hnswEfConstruction;
+    }
+
+    private HnswIndex buildVectorIndex(Path file, String tag, int m, int efConstruction) throws IOException {
+        System.out.println("Building HNSW vector index...");
+        long start = System.nanoTime();
+        HnswIndex built = new HnswIndex(embeddings, m, efConstruction);
+        built.build(Runtime.getRuntime().availableProcessors());
+        metrics.setGauge("ingest_hnsw_seconds", (System.nanoTime() - start) / 1e9);
+        if (file != null) {
+            built.save(file, tag);
         }
+        System.out.println("HNSW vector index built over " + built.size() + " papers.");
+        return built;
+    }
 
-        for (int i = 0; i < iterations; i++) {
-            Map<String, Double> newScores = new HashMap<>();
-            
-            for (String paperId : paperIndex.keySet()) {
-                double score = (1 - dampingFactor) / paperIndex.size();
-                
-                for (String otherPaperId : paperIndex.keySet()) {
-                    if (citationGraph.getOrDefault(otherPaperId, Collections.emptySet()).contains(paperId)) {
-                        score += dampingFactor * (pageRankScores.get(otherPaperId) / 
-                                citationGraph.get(otherPaperId).size());
+    // Ingested rows are searched exhaustively until the graph is rebuilt; once enough of them
+    // pile up a new graph is built in the background and swapped in, unless the graph was
+    // discarded (configureVectorIndex) or replaced in the meantime.
+    private void maybeRebuildVectorIndex() {
+        HnswIndex current;
+        int m;
+        int efConstruction;
+        Path file;
+        String tag;
+        synchronized (vectorIndexLock) {
+            current = vectorIndex;
+            if (current == null || rebuildingVectorIndex || current.unindexedRows()
+                    < Math.max(HNSW_REBUILD_MIN_ROWS, current.size() * HNSW_REBUILD_FRACTION)) {
+                return;
+            }
+            rebuildingVectorIndex = true;
+            m = hnswM;
+            efConstruction = hnswEfConstruction;
+            file = indexDir == null ? null : indexDir.resolve(HNSW_FILE);
+            tag = vectorIndexTag();
+        }
+        Thread rebuild = new Thread(() -> {
+            try {
+                HnswIndex built = buildVectorIndex(file, tag, m, efConstruction);
+                synchronized (vectorIndexLock) {
+                    if (vectorIndex == current) {
+                        vectorIndex = built;
                     }
                 }
-                
-                newScores.put(paperId, score);
+            } catch (IOException e) {
+                System.err.println("HNSW rebuild failed: " + e.getMessage());
+            } finally {
+                synchronized (vectorIndexLock) {
+                    rebuildingVectorIndex = false;
+                }
             }
-            
-            pageRankScores = newScores;
-            processedPapers++;
-            if (processedPapers % 10 == 0) {
-                int progress = (int) ((double) processedPapers / totalPapers * 100);
-                System.out.println("Progress computing PageRank: " + progress + "%");
+        }, "hnsw-rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+    }
+
+    public List<List<Paper>> semanticSearchWithClustering(String queryText, int topN, int numClusters) throws Exception {
+        return semanticSearchWithClustering(queryText, topN, numClusters, SearchMode.LEXICAL);
+    }
+
+    // Returned lists are shared with the result cache and therefore unmodifiable
+    public List<List<Paper>> semanticSearchWithClustering(String queryText, int topN, int numClusters, SearchMode mode) throws Exception {
+        List<List<Paper>> clusteredPapers = new ArrayList<>();
+        for (ResultCluster cluster : clusteredSearch(queryText, topN, numClusters, mode)) {
+            clusteredPapers.add(cluster.papers);
+        }
+        return Collections.unmodifiableList(clusteredPapers);
+    }
+
+    // Like semanticSearchWithClustering, but each cluster also carries a label and its top
+    // terms. numClusters <= 0 chooses the number of clusters automatically.
+    public List<ResultCluster> clusteredSearch(String queryText, int topN, int numClusters, SearchMode mode) throws Exception {
+        return clusteredSearch(queryText, topN, numClusters, mode, RankingWeights.DEFAULT);
+    }
+
+    public List<ResultCluster> clusteredSearch(String queryText, int topN, int numClusters, SearchMode mode,
+                                               RankingWeights weights) throws Exception {
+        return clusteredSearch(queryText, topN, numClusters, mode, weights, SearchFilter.NONE);
+    }
+
+    // Only papers passing the filter are ranked
+    public List<ResultCluster> clusteredSearch(String queryText, int topN, int numClusters, SearchMode mode,
+                                               RankingWeights weights, SearchFilter filter) throws Exception {
+        Metrics.Trace trace = metrics.trace();
+        metrics.increment("queries", 1);
+
+        String normalizedQuery = normalizeQuery(queryText);
+        SearchKey resultKey = new SearchKey(mode, topN, numClusters, weights, filter, normalizedQuery);
+        long resultGeneration = resultCache.generation();
+        List<ResultCluster> cached = resultCache.get(resultKey);
+        if (cached != null) {
+            finishSearch(trace, normalizedQuery, topN, numClusters, mode);
+            return cached;
+        }
+
+        List<PaperScore> paperScores = rankCandidates(normalizedQuery, topN, mode, weights, filter, trace);
+        checkInterrupted();
+        List<ResultCluster> clusteredResults = clusterResults(paperScores, numClusters, trace);
+        resultCache.put(resultKey, clusteredResults, resultGeneration);
+        finishSearch(trace, normalizedQuery, topN, numClusters, mode);
+        return clusteredResults;
+    }
+
+    // The papers clusteredSearch would cluster, best first and without clustering, so a caller
+    // can show them before k-means has run. The ranking is cached, so a clusteredSearch for the
+    // same arguments right after only pays for clustering.
+    public List<Paper> rankedSearch(String queryText, int topN, SearchMode mode, RankingWeights weights,
+                                    SearchFilter filter) throws Exception {
+        List<PaperScore> paperScores = rankCandidates(normalizeQuery(queryText), topN, mode, weights, filter,
+                metrics.trace());
+        List<Paper> papers = new ArrayList<>(paperScores.size());
+        for (PaperScore paperScore : paperScores) {
+            papers.add(store.paper(paperScore.ordinal));
+        }
+        return Collections.unmodifiableList(papers);
+    }
+
+    // Searches check between stages whether their thread was interrupted (a cancelled UI
+    // search, a timed-out request), so abandoned queries stop early instead of running to the end
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Search cancelled");
+        }
+    }
+
+    // Clustered results of a filtered search together with facet counts over its matches
+    public static class SearchResult {
+        final List<ResultCluster> clusters;
+        final FacetCounts facets;
+
+        SearchResult(List<ResultCluster> clusters, FacetCounts facets) {
+            this.clusters = clusters;
+            this.facets = facets;
+        }
+
+        public List<ResultCluster> getClusters() {
+            return clusters;
+        }
+
+        public FacetCounts getFacets() {
+            return facets;
+        }
+    }
+
+    // clusteredSearch plus the most frequent years, venues and authors among the papers that
+    // match: every keyword match passing the filter in lexical and hybrid mode, counted in
+    // Lucene from doc values, and the nearest-neighbour candidates passing it in semantic mode
+    public SearchResult facetedSearch(String queryText, int topN, int numClusters, SearchMode mode,
+                                      RankingWeights weights, SearchFilter filter) throws Exception {
+        List<ResultCluster> clusters = clusteredSearch(queryText, topN, numClusters, mode, weights, filter);
+        String normalizedQuery = normalizeQuery(queryText);
+        // Facets depend on neither the weights nor the clustering
+        SearchKey facetKey = new SearchKey(mode, topN, 0, null, filter, normalizedQuery);
+        long generation = facetCache.generation();
+        FacetCounts facets = facetCache.get(facetKey);
+        if (facets == null) {
+            long start = System.nanoTime();
+            facets = countFacets(normalizedQuery, topN, mode, filter);
+            metrics.timer("facets").record(System.nanoTime() - start);
+            facetCache.put(facetKey, facets, generation);
+        }
+        return new SearchResult(clusters, facets);
+    }
+
+    private FacetCounts countFacets(String queryText, int topN, SearchMode mode, SearchFilter filter) throws Exception {
+        FacetCounts counts = new FacetCounts();
+        if (mode == SearchMode.SEMANTIC) {
+            for (int ordinal : nearestCandidates(queryVector(queryText), topN, filter)) {
+                counts.addPaper(store, ordinal);
+            }
+        } else {
+            SearchShard.Request request = new SearchShard.Request(queryText, null, topN, RankingWeights.DEFAULT, filter);
+            for (FacetCounts shardCounts : fanOut(shard -> shard.countFacets(request), true)) {
+                counts.merge(shardCounts);
             }
         }
+        return counts.top(FACET_LIMIT);
+    }
 
-        // Update paper PageRank scores
-        for (Paper paper : paperIndex.values()) {
-            paper.pageRankScore = pageRankScores.get(paper.id)*100000;
+    private void finishSearch(Metrics.Trace trace, String queryText, int topN, int numClusters, SearchMode mode) {
+        long elapsed = trace.elapsedNanos();
+        metrics.timer("search").record(elapsed);
+        long threshold = slowQueryNanos;
+        if (threshold >= 0 && elapsed >= threshold) {
+            metrics.increment("slow_queries", 1);
+            String stages = trace.toString();
+            System.out.printf(Locale.ROOT, "Slow query: %.1f ms, mode=%s, topN=%d, k=%d, \"%s\" [%s]%n",
+                    elapsed / 1e6, mode, topN, numClusters, queryText, stages.isEmpty() ? "cached" : stages);
         }
-        System.out.println("PageRank computation completed.");
     }
 
-    public List<List<Paper>> semanticSearchWithClustering(String queryText, int topN, int numClusters) throws Exception {
-        System.out.println("Starting semantic search with clustering...");
-        
+    // Receives searchBatch results on the calling thread, in input order. By default a query
+    // that fails (say, with a QueryParser syntax error) aborts the batch; override onError to
+    // skip it instead.
+    public interface BatchCallback {
+        void onResult(int queryIndex, String queryText, List<ResultCluster> clusters) throws Exception;
+
+        default void onError(int queryIndex, String queryText, Exception error) throws Exception {
+            throw error;
+        }
+    }
+
+    public void searchBatch(List<String> queries, int topN, int numClusters, BatchCallback callback) throws Exception {
+        searchBatch(queries, topN, numClusters, SearchMode.LEXICAL, callback);
+    }
+
+    public void searchBatch(List<String> queries, int topN, int numClusters, SearchMode mode,
+                            BatchCallback callback) throws Exception {
+        searchBatch(queries, topN, numClusters, mode, RankingWeights.DEFAULT, callback);
+    }
+
+    // Runs many queries in one pass: each chunk of BATCH_CHUNK_SIZE queries is embedded up
+    // front, then its Lucene and HNSW searches, ranking and clustering run in parallel against
+    // a single searcher. Results stream to the callback chunk by chunk, so memory stays bounded
+    // however long the list is. Batches bypass the query caches so they do not evict
+    // interactive entries.
+    public void searchBatch(List<String> queries, int topN, int numClusters, SearchMode mode,
+                            RankingWeights weights, BatchCallback callback) throws Exception {
+        for (int from = 0; from < queries.size(); from += BATCH_CHUNK_SIZE) {
+            List<String> chunk = queries.subList(from, Math.min(queries.size(), from + BATCH_CHUNK_SIZE));
+            BatchChunk results;
+            try {
+                results = batchPool.submit(() -> searchChunk(chunk, topN, numClusters, mode, weights)).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                if (results.errors[i] != null) {
+                    callback.onError(from + i, chunk.get(i), results.errors[i]);
+                } else {
+                    callback.onResult(from + i, chunk.get(i), results.clusters.get(i));
+                }
+            }
+        }
+    }
+
+    private static class BatchChunk {
+        final List<List<ResultCluster>> clusters;
+        final Exception[] errors;
+
+        BatchChunk(List<List<ResultCluster>> clusters, Exception[] errors) {
+            this.clusters = clusters;
+            this.errors = errors;
+        }
+    }
+
+    // Runs inside batchPool, so the parallel streams below use its workers. A query that fails
+    // in any stage gets its exception in errors and is skipped by the later stages.
+    private BatchChunk searchChunk(List<String> chunk, int topN, int numClusters, SearchMode mode,
+                                   RankingWeights weights) throws Exception {
+        int queryCount = chunk.size();
+        Metrics.Trace trace = metrics.trace();
+        long stageStart = System.nanoTime();
+        metrics.increment("batch_queries", queryCount);
+
+        String[] texts = new String[queryCount];
+        float[][] queryVectors = new float[queryCount][];
+        Exception[] errors = new Exception[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            try {
+                texts[q] = normalizeQuery(chunk.get(q));
+                countQueryWords(tokenize(texts[q]));
+                queryVectors[q] = computeSemanticVector(texts[q]);
+            } catch (Exception e) {
+                errors[q] = e;
+            }
+        }
+        stageStart = trace.stage("batch_embed", stageStart);
+
+        // Scored candidates for every query, each query's block starting at q * width
+        int width = candidateCapacity(topN, mode);
+        int[] ordinals = new int[queryCount * width];
+        float[] scores = new float[ordinals.length];
+        int[] counts = new int[queryCount];
+        // Queries already run in parallel here, so each one searches the shards in turn
+        IntStream.range(0, queryCount).parallel().forEach(q -> {
+            if (errors[q] != null) {
+                return;
+            }
+            try {
+                counts[q] = collectCandidates(texts[q], queryVectors[q], topN, mode, weights, SearchFilter.NONE,
+                        ordinals, scores, q * width, false, metrics.trace());
+            } catch (Exception e) {
+                errors[q] = e;
+            }
+        });
+        stageStart = trace.stage("batch_retrieve", stageStart);
+
+        List<List<ResultCluster>> clusters = new ArrayList<>(Collections.nCopies(queryCount, null));
+        IntStream.range(0, queryCount).parallel().forEach(q -> {
+            if (errors[q] == null) {
+                try {
+                    List<PaperScore> ranked = topCandidates(ordinals, scores, q * width, counts[q], topN);
+                    clusters.set(q, clusterResults(ranked, numClusters, metrics.trace()));
+                } catch (Exception e) {
+                    errors[q] = e;
+                }
+            }
+        });
+        trace.stage("batch_cluster", stageStart);
+        return new BatchChunk(clusters, errors);
+    }
+
+    // Collapses whitespace so trivially different spellings of a query share cache entries.
+    // Case is kept: QueryParser operators such as AND/OR are case-sensitive.
+    private static String normalizeQuery(String queryText) {
+        return queryText.trim().replaceAll("\\s+", " ");
+    }
+
+    private float[] queryVector(String queryText) {
+        List<String> tokens = tokenize(queryText);
+        countQueryWords(tokens);
+
+        // The embedding only depends on the lower-cased tokens
+        String key = String.join(" ", tokens);
+        long generation = embeddingCache.generation();
+        float[] queryVector = embeddingCache.get(key);
+        if (queryVector == null) {
+            queryVector = computeSemanticVector(queryText);
+            embeddingCache.put(key, queryVector, generation);
+        }
+        return queryVector;
+    }
+
+    private void countQueryWords(List<String> tokens) {
+        int unknownWords = 0;
+        for (String token : tokens) {
+            if (!wordVectors.hasWord(token)) {
+                unknownWords++;
+            }
+        }
+        metrics.increment("query_words", tokens.size());
+        metrics.increment("oov_query_words", unknownWords);
+    }
+
+    // Top N candidates by combined lexical, semantic and PageRank score, best first
+    private List<PaperScore> rankCandidates(String queryText, int topN, SearchMode mode, RankingWeights weights,
+                                            SearchFilter filter, Metrics.Trace trace) throws Exception {
+        long stageStart = System.nanoTime();
+        SearchKey cacheKey = new SearchKey(mode, topN, 0, weights, filter, queryText);
+        long generation = candidateCache.generation();
+        List<PaperScore> cached = candidateCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
         // Convert query to semantic vector
-        double[] queryVector = computeSemanticVector(queryText);
-        System.out.println("Query converted to semantic vector.");
-
-        // Perform Lucene text search
-        System.out.println("Performing Lucene text search...");
-        IndexReader reader = DirectoryReader.open(index);
-        IndexSearcher searcher = new IndexSearcher(reader);
-        QueryParser parser = new QueryParser("title", analyzer);
-        Query query = parser.parse(queryText);
-        
-        TopDocs results = searcher.search(query, topN * 10);  // More results for clustering
-        
-        // Create a list to store papers with their combined scores
-        List<PaperScore> paperScores = new ArrayList<>();
-        
-        for (ScoreDoc scoreDoc : results.scoreDocs) {
-            Document doc = searcher.doc(scoreDoc.doc);
-            Paper paper = paperIndex.get(doc.get("id"));
-            
-            // Check for null or empty semantic vector
-            if (paper.semanticVector == null || paper.semanticVector.length == 0) {
-                continue;  // Skip papers with no valid semantic vector
+        float[] queryVector = queryVector(queryText);
+        trace.stage("embed", stageStart);
+        checkInterrupted();
+
+        int[] ordinals = new int[candidateCapacity(topN, mode)];
+        float[] scores = new float[ordinals.length];
+        int candidateCount = collectCandidates(queryText, queryVector, topN, mode, weights, filter,
+                ordinals, scores, 0, true, trace);
+
+        stageStart = System.nanoTime();
+        List<PaperScore> ranked = topCandidates(ordinals, scores, 0, candidateCount, topN);
+        trace.stage("ranking", stageStart);
+        candidateCache.put(cacheKey, ranked, generation);
+        return ranked;
+    }
+
+    private static int candidateCapacity(int topN, SearchMode mode) {
+        int nearest = topN * ANN_CANDIDATES_PER_RESULT;
+        return mode == SearchMode.LEXICAL ? topN : mode == SearchMode.SEMANTIC ? nearest : topN + nearest;
+    }
+
+    // Writes the query's candidate ordinals and fused scores from offset on, and returns how
+    // many there are. Lucene ranks keyword matches by the fused score while it collects them
+    // (see FusedScoreQuery), so the merged top N of the shards is final and nothing is
+    // re-scored afterwards; embedding-only candidates have no lexical score and are fused here.
+    // With fanOut the shards are searched in parallel on the shard pool.
+    private int collectCandidates(String queryText, float[] queryVector, int topN, SearchMode mode,
+                                  RankingWeights weights, SearchFilter filter, int[] ordinals, float[] scores,
+                                  int offset, boolean fanOut, Metrics.Trace trace) throws Exception {
+        long stageStart = System.nanoTime();
+        int candidateCount = 0;
+        PageRankColumn ranks = pageRanks;
+
+        if (mode != SearchMode.SEMANTIC) {
+            // Perform Lucene text search on every shard
+            SearchShard.Request request = new SearchShard.Request(queryText, queryVector, topN, weights, filter);
+            List<SearchShard.Hits> shardHits = fanOut(shard -> searchShard(shard, request), fanOut);
+            stageStart = trace.stage("lucene_search", stageStart);
+            SearchShard.Hits hits = mergeHits(shardHits, topN);
+            for (int i = 0; i < hits.size(); i++) {
+                ordinals[offset + candidateCount] = hits.ordinal(i);
+                scores[offset + candidateCount++] = hits.score(i);
             }
-            
-            // Compute semantic similarity
-            INDArray paperVec = Nd4j.create(paper.semanticVector);
-            INDArray queryVec = Nd4j.create(queryVector);
-            double semanticScore = Transforms.cosineSim(paperVec, queryVec);
-            
-            // Combine scores with weighted approach
-            // Lucene text search score (0.5), semantic similarity (0.3), PageRank (0.2)
-            double combinedScore = (0.5 * scoreDoc.score) + 
-                                   (0.2 * semanticScore) + 
-                                   (0.3 * (paper.pageRankScore / 100000.0));
-            
-            paperScores.add(new PaperScore(paper, combinedScore));
+            stageStart = trace.stage("shard_merge", stageStart);
+            metrics.increment("lucene_hits", hits.size());
         }
 
-        // Sort papers by combined score in descending order
+        if (mode != SearchMode.LEXICAL) {
+            // Embedding-first candidates. A paper Lucene also matched already has its full
+            // score; one that matched but missed Lucene's top N cannot make the final top N.
+            Set<Integer> lexicalHits = new HashSet<>();
+            for (int i = 0; i < candidateCount; i++) {
+                lexicalHits.add(ordinals[offset + i]);
+            }
+            for (int ordinal : nearestCandidates(queryVector, topN, filter)) {
+                if (!lexicalHits.contains(ordinal)) {
+                    scores[offset + candidateCount] = (float) weights.combine(0,
+                            embeddings.dot(ordinal, queryVector), ranks.score(ordinal));
+                    ordinals[offset + candidateCount++] = ordinal;
+                }
+            }
+            trace.stage("ann_search", stageStart);
+        }
+        return candidateCount;
+    }
+
+    // Nearest live papers to the query that pass the filter, at most topN * ANN_CANDIDATES_PER_RESULT.
+    // The graph cannot apply the filter while it searches, so the neighbours are checked
+    // against the paper store afterwards.
+    private List<Integer> nearestCandidates(float[] queryVector, int topN, SearchFilter filter) throws IOException {
+        int nearestLimit = topN * ANN_CANDIDATES_PER_RESULT;
+        HnswIndex.Result nearest = vectorIndex().search(queryVector, nearestLimit,
+                Math.max(hnswEfSearch, nearestLimit));
+        List<Integer> candidates = new ArrayList<>(nearest.size());
+        for (int i = 0; i < nearest.size(); i++) {
+            int ordinal = nearest.node(i);
+            if (!store.isDeleted(ordinal) && (filter.isEmpty() || filter.matches(store, ordinal))) {
+                candidates.add(ordinal);
+            }
+        }
+        return candidates;
+    }
+
+    // One call to a shard, e.g. a search or a facet count
+    private interface ShardCall<T> {
+        T call(SearchShard shard) throws Exception;
+    }
+
+    // The call's result for each shard, in shard order. With fanOut (and more than one shard)
+    // the calls run in parallel on the shard pool. A failed shard fails the whole call with its
+    // exception, and the calls still running are cancelled.
+    private <T> List<T> fanOut(ShardCall<T> call, boolean fanOut) throws Exception {
+        List<SearchShard> targets = searchShards;
+        List<T> results = new ArrayList<>(targets.size());
+        if (!fanOut || shardPool == null) {
+            for (SearchShard shard : targets) {
+                results.add(call.call(shard));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        try {
+            for (SearchShard shard : targets) {
+                futures.add(shardPool.submit(() -> call.call(shard)));
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private SearchShard.Hits searchShard(SearchShard shard, SearchShard.Request request) throws Exception {
+        long start = System.nanoTime();
+        SearchShard.Hits hits = shard.search(request);
+        metrics.timer("shard_search").record(System.nanoTime() - start);
+        return hits;
+    }
+
+    // Global top N of the shards' best-first hits: a k-way merge that takes the best remaining
+    // head until N hits are taken. Every paper lives in one shard, so there is nothing to dedupe.
+    static SearchShard.Hits mergeHits(List<SearchShard.Hits> shardHits, int topN) {
+        if (shardHits.size() == 1) {
+            return shardHits.get(0);
+        }
+        int total = 0;
+        for (SearchShard.Hits hits : shardHits) {
+            total += hits.size();
+        }
+        int count = Math.min(topN, total);
+        int[] ordinals = new int[count];
+        float[] scores = new float[count];
+        int[] next = new int[shardHits.size()];
+        for (int i = 0; i < count; i++) {
+            int best = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int s = 0; s < next.length; s++) {
+                SearchShard.Hits hits = shardHits.get(s);
+                if (next[s] < hits.size() && (best < 0 || hits.score(next[s]) > bestScore)) {
+                    best = s;
+                    bestScore = hits.score(next[s]);
+                }
+            }
+            ordinals[i] = shardHits.get(best).ordinal(next[best]);
+            scores[i] = bestScore;
+            next[best]++;
+        }
+        return new SearchShard.Hits(ordinals, scores);
+    }
+
+    // Orders candidates [offset, offset + count) by fused score and keeps the best topN
+    private List<PaperScore> topCandidates(int[] ordinals, float[] scores, int offset, int count, int topN) {
+        List<PaperScore> paperScores = new ArrayList<>(count);
+        for (int i = offset; i < offset + count; i++) {
+            paperScores.add(new PaperScore(ordinals[i], scores[i]));
+        }
+
+        // Sort papers by combined score in descending order and keep the top N for clustering
         paperScores.sort(Comparator.comparingDouble(ps -> -ps.score));
+        metrics.increment("candidates_scored", count);
+        return Collections.unmodifiableList(
+                new ArrayList<>(paperScores.subList(0, Math.min(topN, paperScores.size()))));
+    }
 
-        // Select top N papers for clustering
-        List<ClusterablePaper> clusterablePapers = new ArrayList<>();
-        for (int i = 0; i < Math.min(topN, paperScores.size()); i++) {
-            PaperScore paperScore = paperScores.get(i);
-            
-            // Create enhanced vector with combined score
-            double[] enhancedVector = Arrays.copyOf(paperScore.paper.semanticVector, 
-                                                    paperScore.paper.semanticVector.length + 1);
-            enhancedVector[enhancedVector.length - 1] = paperScore.score;
-            
-            clusterablePapers.add(new ClusterablePaper(paperScore.paper, enhancedVector));
+    private List<ResultCluster> clusterResults(List<PaperScore> paperScores, int numClusters, Metrics.Trace trace) {
+        long stageStart = System.nanoTime();
+        int count = paperScores.size();
+        int dimension = embeddings.dimension();
+        float[] points = new float[count * dimension];
+        float[] row = new float[dimension];
+        // Only the papers actually returned are materialised from the store
+        List<Paper> rankedPapers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            embeddings.copyRow(paperScores.get(i).ordinal, row);
+            System.arraycopy(row, 0, points, i * dimension, dimension);
+            rankedPapers.add(store.paper(paperScores.get(i).ordinal));
         }
 
-        // Perform K-means clustering
-        System.out.println("performing k-means...");
-        KMeansPlusPlusClusterer<ClusterablePaper> clusterer = 
-            new KMeansPlusPlusClusterer<>(numClusters, 100);
-        
-        // Convert CentroidCluster to our cluster representation
-        List<List<Paper>> clusteredResults = new ArrayList<>();
-        List<org.apache.commons.math3.ml.clustering.CentroidCluster<ClusterablePaper>> centroidClusters = 
-            (List<org.apache.commons.math3.ml.clustering.CentroidCluster<ClusterablePaper>>) clusterer.cluster(clusterablePapers);
-
-        for (org.apache.commons.math3.ml.clustering.CentroidCluster<ClusterablePaper> centroidCluster : centroidClusters) {
-            List<Paper> clusterPapers = centroidCluster.getPoints().stream()
-                .map(ClusterablePaper::getPaper)
-                .collect(Collectors.toList());
-            
-            clusteredResults.add(clusterPapers);
+        // Perform K-means clustering. Callers already running in parallel (searchBatch) assign
+        // on their own thread instead of splitting each query again.
+        KMeans kMeans = new KMeans(KMEANS_SEED, KMEANS_MAX_ITERATIONS, KMEANS_TOLERANCE,
+                count >= kMeansMiniBatchMinPoints ? kMeansMiniBatchSize : 0,
+                ForkJoinTask.inForkJoinPool() ? null : clusteringPool);
+        KMeans.Result result = numClusters > 0
+                ? kMeans.cluster(points, count, dimension, numClusters)
+                : kMeans.clusterAutoK(points, count, dimension, AUTO_K_MAX, AUTO_K_SAMPLE);
+
+        // Walking the ranked list keeps papers in score order within each cluster and orders
+        // the clusters by their best-ranked paper
+        int[] clusterOrder = new int[result.getK()];
+        Arrays.fill(clusterOrder, -1);
+        List<List<Paper>> groups = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int cluster = result.getAssignments()[i];
+            if (clusterOrder[cluster] < 0) {
+                clusterOrder[cluster] = groups.size();
+                groups.add(new ArrayList<>());
+            }
+            groups.get(clusterOrder[cluster]).add(rankedPapers.get(i));
         }
-        System.out.println("clustering done");
 
-        return clusteredResults;
+        stageStart = trace.stage("kmeans", stageStart);
+        metrics.increment("kmeans_iterations", result.getIterations());
+
+        List<ResultCluster> clusteredResults = new ArrayList<>();
+        Map<String, Integer> resultFrequencies = termFrequencies(rankedPapers);
+        for (List<Paper> group : groups) {
+            List<String> topTerms = topTerms(termFrequencies(group), group.size(), resultFrequencies, count);
+            String label = String.join(", ", topTerms.subList(0, Math.min(CLUSTER_LABEL_TERMS, topTerms.size())));
+            clusteredResults.add(new ResultCluster(Collections.unmodifiableList(group), label,
+                    Collections.unmodifiableList(topTerms)));
+        }
+        trace.stage("cluster_labels", stageStart);
+
+        return Collections.unmodifiableList(clusteredResults);
+    }
+
+    // Number of titles each non-stopword term occurs in
+    private static Map<String, Integer> termFrequencies(List<Paper> group) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (Paper paper : group) {
+            if (paper.title == null) {
+                continue;
+            }
+            Set<String> seen = new HashSet<>();
+            for (String token : tokenize(paper.title.replaceAll("[^\\p{L}\\p{N}]+", " "))) {
+                if (token.length() > 1 && !EnglishAnalyzer.ENGLISH_STOP_WORDS_SET.contains(token) && seen.add(token)) {
+                    frequencies.merge(token, 1, Integer::sum);
+                }
+            }
+        }
+        return frequencies;
+    }
+
+    // Ranks terms by how much more common they are in the cluster than in all results, weighted
+    // by their frequency in the cluster, so shared query terms don't label every cluster
+    private static List<String> topTerms(Map<String, Integer> clusterFrequencies, int clusterSize,
+                                         Map<String, Integer> resultFrequencies, int resultSize) {
+        List<Map.Entry<String, Double>> weighted = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : clusterFrequencies.entrySet()) {
+            double inCluster = (double) entry.getValue() / clusterSize;
+            double inResults = (double) resultFrequencies.get(entry.getKey()) / resultSize;
+            weighted.add(new AbstractMap.SimpleEntry<>(entry.getKey(), inCluster * Math.log(1 + inCluster / inResults)));
+        }
+        weighted.sort(Map.Entry.<String, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < Math.min(CLUSTER_TOP_TERMS, weighted.size()); i++) {
+            terms.add(weighted.get(i).getKey());
+        }
+        return terms;
     }
 
     // New helper class to track paper and its combined score
     private static class PaperScore {
-        Paper paper;
-        double score;
+        final int ordinal;
+        final double score;
 
-        public PaperScore(Paper paper, double score) {
-            this.paper = paper;
+        public PaperScore(int ordinal, double score) {
+            this.ordinal = ordinal;
             this.score = score;
         }
     }
 
+    // Cache key of the candidate, result and facet caches. Fields a cache does not depend on
+    // are left at 0 or null, which is fine since every cache has its own keys.
+    private static final class SearchKey {
+        final SearchMode mode;
+        final int topN;
+        final int numClusters;
+        final RankingWeights weights;
+        final SearchFilter filter;
+        final String query;
+
+        SearchKey(SearchMode mode, int topN, int numClusters, RankingWeights weights, SearchFilter filter,
+                  String query) {
+            this.mode = mode;
+            this.topN = topN;
+            this.numClusters = numClusters;
+            this.weights = weights;
+            this.filter = filter;
+            this.query = query;
+        }
+
+        // Rough heap size for the caches' byte budgets: the object, the query string and the
+        // filter's venue and author strings
+        long bytes() {
+            long bytes = 64L + 2L * query.length();
+            if (filter.venue != null) {
+                bytes += 2L * filter.venue.length();
+            }
+            if (filter.author != null) {
+                bytes += 2L * filter.author.length();
+            }
+            return bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SearchKey)) {
+                return false;
+            }
+            SearchKey other = (SearchKey) o;
+            return mode == other.mode && topN == other.topN && numClusters == other.numClusters
+                    && Objects.equals(weights, other.weights) && filter.equals(other.filter)
+                    && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mode, topN, numClusters, weights, filter, query);
+        }
+    }
+
     // Method to print clustered results
     private static void printClusteredResults(List<List<Paper>> clusters) {
         System.out.println("===== Clustered Search Results =====");
@@ -380,27 +1696,30 @@ public class SemanticClusterSearchEngine {
             // Paths to dataset and Word2Vec model (you'll need to replace these with actual paths)
             String datasetPath = "C:\\Users\\faiza\\Downloads\\citation-network1\\outputacmTrimmed.txt";
             String word2vecModelPath = "C:\\Users\\faiza\\Downloads\\citation-network1\\GoogleNews-vectors-negative300.bin";
+            // On-disk Lucene index, reused across runs while the dataset is unchanged
+            String indexPath = "C:\\Users\\faiza\\Downloads\\citation-network1\\luceneIndex";
 
             // Initialize the Semantic Cluster Search Engine
-            SemanticClusterSearchEngine searchEngine = 
-                new SemanticClusterSearchEngine(datasetPath, word2vecModelPath);
-
-            // Example search query
-            String searchQuery = "Neural Networks";
-
-            // Perform semantic search with clustering
-            // Parameters: 
-            // - Search query
-            // - Top N results to retrieve
-            // - Number of clusters to create
-            List<List<Paper>> clusteredResults = searchEngine.semanticSearchWithClustering(
-                searchQuery, 
-                20,  // Retrieve top 20 results 
-                5   // Create 5 clusters
-            );
-
-            // Print the clustered results
-            printClusteredResults(clusteredResults);
+            try (SemanticClusterSearchEngine searchEngine = 
+                new SemanticClusterSearchEngine(datasetPath, word2vecModelPath, indexPath)) {
+
+                // Example search query
+                String searchQuery = "Neural Networks";
+
+                // Perform semantic search with clustering
+                // Parameters: 
+                // - Search query
+                // - Top N results to retrieve
+                // - Number of clusters to create
+                List<List<Paper>> clusteredResults = searchEngine.semanticSearchWithClustering(
+                    searchQuery, 
+                    20,  // Retrieve top 20 results 
+                    5   // Create 5 clusters
+                );
+
+                // Print the clustered results
+                printClusteredResults(clusteredResults);
+            }
 
         } catch (Exception e) {
             System.err.println("Error occurred during semantic search:");
@@ -1,79 +1,302 @@
+import org.apache.lucene.queryparser.classic.ParseException;
+
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Searches never run on the Event Dispatch Thread: each one is a SwingWorker on a small
+// background executor, so the window stays responsive while Lucene and k-means work. Only one
+// search is current at a time. Starting another (typing pauses or the Search button) or
+// pressing Cancel interrupts the previous one, and whatever a superseded worker still delivers
+// is dropped. Results show up in two steps: the ranked papers as soon as they are known, then
+// the same papers grouped by cluster once k-means has finished.
 public class SemanticClusterSearchEngineUI {
-    private SemanticClusterSearchEngine searchEngine;
+    private static final int NUM_CLUSTERS = 5;
+    private static final int DEFAULT_TOP_N = 20;
+    private static final int MAX_TOP_N = 5_000;
+    // Typing searches once the query has been left alone this long
+    private static final int TYPING_DELAY_MILLIS = 300;
+
+    private final SemanticClusterSearchEngine searchEngine;
+    // Two threads, so a new search need not wait for a cancelled one to notice its interrupt
+    private final ExecutorService searchExecutor = Executors.newFixedThreadPool(2, daemonThreads());
+    private final ResultTableModel tableModel = new ResultTableModel();
+
+    private JFrame frame;
+    private JTextField searchField;
+    private JSpinner topNSpinner;
+    private JButton cancelButton;
+    private JLabel statusLabel;
+    private Timer typingTimer;
+    // The search whose results are shown; only touched on the EDT
+    private SearchWorker currentSearch;
 
     public SemanticClusterSearchEngineUI(SemanticClusterSearchEngine searchEngine) {
         this.searchEngine = searchEngine;
         initializeUI();
     }
 
+    private static java.util.concurrent.ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "ui-search-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     private void initializeUI() {
-        JFrame frame = new JFrame("Semantic Cluster Search Engine");
+        frame = new JFrame("Semantic Cluster Search Engine");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(800, 600);
 
-        // Top panel with search bar
+        // Top panel with search bar, result count and search/cancel buttons
         JPanel topPanel = new JPanel(new BorderLayout());
         JLabel searchLabel = new JLabel("Enter Search Query: ");
-        JTextField searchField = new JTextField();
+        searchField = new JTextField();
+        topNSpinner = new JSpinner(new SpinnerNumberModel(DEFAULT_TOP_N, 1, MAX_TOP_N, 10));
         JButton searchButton = new JButton("Search");
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
 
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+        controls.add(new JLabel("Results:"));
+        controls.add(topNSpinner);
+        controls.add(searchButton);
+        controls.add(cancelButton);
         topPanel.add(searchLabel, BorderLayout.WEST);
         topPanel.add(searchField, BorderLayout.CENTER);
-        topPanel.add(searchButton, BorderLayout.EAST);
-
-        // Table for displaying clustered results
-        JTable resultTable = new JTable();
-        DefaultTableModel tableModel = new DefaultTableModel(
-            new Object[]{"Cluster", "Title", "Authors", "Year", "Venue", "PageRank Score"},
-            0
-        );
-        resultTable.setModel(tableModel);
+        topPanel.add(controls, BorderLayout.EAST);
+
+        // Table for displaying clustered results. The model hands out cell values straight from
+        // the result papers and JTable only paints visible rows, so long result lists stay cheap;
+        // a fixed row height lets it locate rows without measuring each one.
+        JTable resultTable = new JTable(tableModel);
+        resultTable.setRowHeight(20);
+        resultTable.setFillsViewportHeight(true);
+        resultTable.setAutoCreateRowSorter(true);
+        resultTable.getColumnModel().getColumn(1).setPreferredWidth(320);
+        resultTable.getColumnModel().getColumn(2).setPreferredWidth(160);
         JScrollPane tableScrollPane = new JScrollPane(resultTable);
 
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+
         // Add components to frame
         frame.setLayout(new BorderLayout());
         frame.add(topPanel, BorderLayout.NORTH);
         frame.add(tableScrollPane, BorderLayout.CENTER);
+        frame.add(statusLabel, BorderLayout.SOUTH);
 
-        // Search button action listener
-        searchButton.addActionListener(e -> {
-            String queryText = searchField.getText().trim();
-            if (queryText.isEmpty()) {
+        // Search button (or Enter) searches right away; an empty query is an error there
+        Runnable searchNow = () -> {
+            if (searchField.getText().trim().isEmpty()) {
                 JOptionPane.showMessageDialog(frame, "Please enter a search query.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            startSearch();
+        };
+        searchButton.addActionListener(e -> searchNow.run());
+        searchField.addActionListener(e -> searchNow.run());
+        cancelButton.addActionListener(e -> {
+            typingTimer.stop();
+            cancelSearch();
+            statusLabel.setText("Search cancelled.");
+        });
+
+        // While typing, only the query left standing for TYPING_DELAY_MILLIS is searched
+        typingTimer = new Timer(TYPING_DELAY_MILLIS, e -> startSearch());
+        typingTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        topNSpinner.addChangeListener(e -> typingTimer.restart());
 
-            // Perform semantic search with clustering
+        frame.setVisible(true);
+    }
+
+    // Replaces the current search, if any, with one for the query in the search field
+    private void startSearch() {
+        typingTimer.stop();
+        cancelSearch();
+        String queryText = searchField.getText().trim();
+        if (queryText.isEmpty()) {
+            tableModel.clear();
+            statusLabel.setText(" ");
+            return;
+        }
+        currentSearch = new SearchWorker(queryText, (Integer) topNSpinner.getValue());
+        cancelButton.setEnabled(true);
+        statusLabel.setText("Searching for \"" + queryText + "\"...");
+        searchExecutor.execute(currentSearch);
+    }
+
+    // Interrupts the current search; its late results are ignored because it is no longer current
+    private void cancelSearch() {
+        if (currentSearch != null) {
+            currentSearch.cancel(true);
+            currentSearch = null;
+        }
+        cancelButton.setEnabled(false);
+    }
+
+    // Publishes the ranked papers, then returns them clustered
+    private class SearchWorker extends SwingWorker<List<SemanticClusterSearchEngine.ResultCluster>,
+            List<SemanticClusterSearchEngine.Paper>> {
+        private final String queryText;
+        private final int topN;
+        private final long startNanos = System.nanoTime();
+
+        SearchWorker(String queryText, int topN) {
+            this.queryText = queryText;
+            this.topN = topN;
+        }
+
+        @Override
+        protected List<SemanticClusterSearchEngine.ResultCluster> doInBackground() throws Exception {
+            // Same ranking as semanticSearchWithClustering, which then only adds the clustering
+            publish(searchEngine.rankedSearch(queryText, topN, SemanticClusterSearchEngine.SearchMode.LEXICAL,
+                    SemanticClusterSearchEngine.RankingWeights.DEFAULT, SearchFilter.NONE));
+            return searchEngine.clusteredSearch(queryText, topN, NUM_CLUSTERS,
+                    SemanticClusterSearchEngine.SearchMode.LEXICAL);
+        }
+
+        @Override
+        protected void process(List<List<SemanticClusterSearchEngine.Paper>> chunks) {
+            if (this != currentSearch || isDone()) {
+                return;
+            }
+            List<SemanticClusterSearchEngine.Paper> ranked = chunks.get(chunks.size() - 1);
+            tableModel.showRanked(ranked);
+            statusLabel.setText(ranked.size() + " results for \"" + queryText + "\", clustering...");
+        }
+
+        @Override
+        protected void done() {
+            if (this != currentSearch) {
+                return;
+            }
+            currentSearch = null;
+            cancelButton.setEnabled(false);
             try {
-                List<List<SemanticClusterSearchEngine.Paper>> clusteredResults = searchEngine.semanticSearchWithClustering(queryText, 20, 5);
-
-                // Populate table with results
-                tableModel.setRowCount(0); // Clear previous results
-                for (int clusterIndex = 0; clusterIndex < clusteredResults.size(); clusterIndex++) {
-                    List<SemanticClusterSearchEngine.Paper> cluster = clusteredResults.get(clusterIndex);
-                    for (SemanticClusterSearchEngine.Paper paper : cluster) {
-                        tableModel.addRow(new Object[]{
-                            clusterIndex + 1,
-                            paper.title,
-                            paper.authors,
-                            paper.year,
-                            paper.venue,
-                            paper.pageRankScore
-                        });
+                List<SemanticClusterSearchEngine.ResultCluster> clusters = get();
+                tableModel.showClusters(clusters);
+                statusLabel.setText(String.format("%d results in %d clusters for \"%s\" (%d ms)",
+                        tableModel.getRowCount(), clusters.size(), queryText, (System.nanoTime() - startNanos) / 1_000_000));
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof ParseException || cause instanceof IllegalArgumentException) {
+                    // Status line only, not a dialog or stderr: while typing, half-finished
+                    // queries are often not valid query syntax
+                    statusLabel.setText("Invalid query: " + cause.getMessage());
+                } else {
+                    cause.printStackTrace();
+                    String message = cause.getMessage();
+                    statusLabel.setText("Error during search: "
+                            + (message == null ? cause.getClass().getSimpleName() : message));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Result rows over the papers themselves rather than copied cell arrays. Each update
+    // replaces all rows with a single table event instead of one per row.
+    static class ResultTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Cluster", "Title", "Authors", "Year", "Venue", "PageRank Score"};
+
+        private List<SemanticClusterSearchEngine.Paper> papers = Collections.emptyList();
+        // Cluster number per row, 1-based; null while the results are not clustered yet
+        private int[] clusters;
+
+        // Ranked but not yet clustered results
+        void showRanked(List<SemanticClusterSearchEngine.Paper> ranked) {
+            papers = ranked;
+            clusters = null;
+            fireTableDataChanged();
+        }
+
+        void showClusters(List<SemanticClusterSearchEngine.ResultCluster> resultClusters) {
+            List<SemanticClusterSearchEngine.Paper> rows = new ArrayList<>();
+            int[] rowClusters = new int[16];
+            for (int c = 0; c < resultClusters.size(); c++) {
+                for (SemanticClusterSearchEngine.Paper paper : resultClusters.get(c).papers) {
+                    if (rows.size() == rowClusters.length) {
+                        rowClusters = java.util.Arrays.copyOf(rowClusters, rows.size() * 2);
                     }
+                    rowClusters[rows.size()] = c + 1;
+                    rows.add(paper);
                 }
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Error during search: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
             }
-        });
+            papers = rows;
+            clusters = rowClusters;
+            fireTableDataChanged();
+        }
 
-        frame.setVisible(true);
+        void clear() {
+            showRanked(Collections.emptyList());
+        }
+
+        @Override
+        public int getRowCount() {
+            return papers.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? Integer.class : column == 5 ? Double.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            SemanticClusterSearchEngine.Paper paper = papers.get(row);
+            switch (column) {
+                case 0:
+                    return clusters == null ? null : clusters[row];
+                case 1:
+                    return paper.title;
+                case 2:
+                    return paper.authors;
+                case 3:
+                    return paper.year;
+                case 4:
+                    return paper.venue;
+                default:
+                    return paper.pageRankScore;
+            }
+        }
     }
 
     public static void main(String[] args) {
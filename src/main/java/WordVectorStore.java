@@ -0,0 +1,375 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Compact, memory-mapped word vector store holding only the vocabulary our corpus uses.
+//
+// Built once from a full word2vec model (binary or text format) by the main method below,
+// then opened with a single mmap, so startup costs a page-in of the few vectors actually
+// touched rather than a multi-GB model load. Layout (little-endian):
+//
+//   header    magic, version, dimension, count, flags, tableSize, wordBytes, reserved
+//   table     int[tableSize]   open-addressing hash of word -> row + 1 (0 = empty)
+//   offsets   int[count + 1]   start of each word in the word bytes
+//   words     UTF-8 bytes, padded to 4
+//   scales    float[count]     only when int8-quantized
+//   vectors   float32[count * dimension] or int8[count * dimension]
+public class WordVectorStore implements WordVectors {
+    private static final int MAGIC = 0x57565331; // "WVS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int FLAG_INT8 = 1;
+
+    private final ByteBuffer buffer;
+    private final int dimension;
+    private final int count;
+    private final boolean quantized;
+    private final int tableMask;
+    private final int tableOffset;
+    private final int offsetsOffset;
+    private final int wordsOffset;
+    private final int scalesOffset;
+    private final int vectorsOffset;
+
+    private WordVectorStore(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a word vector store (bad magic)");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported word vector store version " + buffer.getInt(4));
+        }
+        dimension = buffer.getInt(8);
+        count = buffer.getInt(12);
+        quantized = (buffer.getInt(16) & FLAG_INT8) != 0;
+        int tableSize = buffer.getInt(20);
+        int wordBytes = buffer.getInt(24);
+
+        tableMask = tableSize - 1;
+        tableOffset = HEADER_BYTES;
+        offsetsOffset = tableOffset + 4 * tableSize;
+        wordsOffset = offsetsOffset + 4 * (count + 1);
+        scalesOffset = align4(wordsOffset + wordBytes);
+        vectorsOffset = quantized ? scalesOffset + 4 * count : scalesOffset;
+    }
+
+    public static WordVectorStore open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Word vector store larger than 2 GB: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new WordVectorStore(mapped);
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    @Override
+    public boolean hasWord(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    @Override
+    public boolean accumulate(String word, double[] target) {
+        int row = indexOf(word);
+        if (row < 0) {
+            return false;
+        }
+        if (quantized) {
+            float scale = buffer.getFloat(scalesOffset + 4 * row);
+            int base = vectorsOffset + row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                target[i] += scale * buffer.get(base + i);
+            }
+        } else {
+            int base = vectorsOffset + 4 * row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                target[i] += buffer.getFloat(base + 4 * i);
+            }
+        }
+        return true;
+    }
+
+    int indexOf(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(key) & tableMask;
+        while (true) {
+            int entry = buffer.getInt(tableOffset + 4 * slot);
+            if (entry == 0) {
+                return -1;
+            }
+            int row = entry - 1;
+            if (wordEquals(row, key)) {
+                return row;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    private boolean wordEquals(int row, byte[] key) {
+        int start = buffer.getInt(offsetsOffset + 4 * row);
+        int end = buffer.getInt(offsetsOffset + 4 * (row + 1));
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(wordsOffset + start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a followed by a murmur-style finaliser to spread short words across the table
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static int align4(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    // Writes a store containing the given words (row order) and their vectors
+    public static void write(String path, List<String> words, List<float[]> vectors, int dimension, boolean int8)
+            throws IOException {
+        int count = words.size();
+        int tableSize = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+
+        byte[][] encoded = new byte[count][];
+        int wordBytes = 0;
+        for (int i = 0; i < count; i++) {
+            encoded[i] = words.get(i).getBytes(StandardCharsets.UTF_8);
+            wordBytes += encoded[i].length;
+        }
+
+        long offsetsOffset = HEADER_BYTES + 4L * tableSize;
+        long wordsOffset = offsetsOffset + 4L * (count + 1);
+        long scalesOffset = (wordsOffset + wordBytes + 3) & ~3L;
+        long vectorsOffset = int8 ? scalesOffset + 4L * count : scalesOffset;
+        long total = vectorsOffset + (long) count * dimension * (int8 ? 1 : 4);
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Word vector store would exceed 2 GB; use --int8 or a smaller vocabulary");
+        }
+
+        Path target = Paths.get(path);
+        Files.deleteIfExists(target);
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(total);
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, dimension);
+            out.putInt(12, count);
+            out.putInt(16, int8 ? FLAG_INT8 : 0);
+            out.putInt(20, tableSize);
+            out.putInt(24, wordBytes);
+
+            int offset = 0;
+            for (int row = 0; row < count; row++) {
+                int slot = hash(encoded[row]) & (tableSize - 1);
+                while (out.getInt(HEADER_BYTES + 4 * slot) != 0) {
+                    slot = (slot + 1) & (tableSize - 1);
+                }
+                out.putInt(HEADER_BYTES + 4 * slot, row + 1);
+
+                out.putInt((int) offsetsOffset + 4 * row, offset);
+                for (int i = 0; i < encoded[row].length; i++) {
+                    out.put((int) wordsOffset + offset + i, encoded[row][i]);
+                }
+                offset += encoded[row].length;
+            }
+            out.putInt((int) offsetsOffset + 4 * count, offset);
+
+            for (int row = 0; row < count; row++) {
+                float[] vector = vectors.get(row);
+                if (int8) {
+                    float max = 0;
+                    for (float v : vector) {
+                        max = Math.max(max, Math.abs(v));
+                    }
+                    float scale = max == 0 ? 1 : max / 127f;
+                    out.putFloat((int) scalesOffset + 4 * row, scale);
+                    int base = (int) vectorsOffset + row * dimension;
+                    for (int i = 0; i < dimension; i++) {
+                        out.put(base + i, (byte) Math.round(vector[i] / scale));
+                    }
+                } else {
+                    int base = (int) vectorsOffset + 4 * row * dimension;
+                    for (int i = 0; i < dimension; i++) {
+                        out.putFloat(base + 4 * i, vector[i]);
+                    }
+                }
+            }
+            out.force();
+        }
+    }
+
+    // Collects the vocabulary used by the dataset titles, tokenized exactly like queries
+    static Set<String> corpusVocabulary(String datasetPath) throws IOException {
+        Set<String> vocabulary = new HashSet<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(PaperLoader.open(datasetPath), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#*")) {
+                    vocabulary.addAll(SemanticClusterSearchEngine.tokenize(line.substring(2).trim()));
+                }
+            }
+        }
+        return vocabulary;
+    }
+
+    // Streams a word2vec model and keeps only the vectors whose word is in the vocabulary.
+    // Binary files (".bin", ".bin.gz") use the original C tool layout; anything else is read
+    // as the text format, with an optional "count dimension" header line.
+    static int readNeededVectors(String modelPath, Set<String> vocabulary, List<String> words, List<float[]> vectors)
+            throws IOException {
+        boolean binary = modelPath.endsWith(".bin") || modelPath.endsWith(".bin.gz");
+        Set<String> seen = new HashSet<>();
+        try (InputStream raw = PaperLoader.open(modelPath)) {
+            if (binary) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 20));
+                String[] header = readToken(in, '\n').trim().split("\\s+");
+                long total = Long.parseLong(header[0]);
+                int dimension = Integer.parseInt(header[1]);
+                byte[] raw32 = new byte[4 * dimension];
+                ByteBuffer floats = ByteBuffer.wrap(raw32).order(ByteOrder.LITTLE_ENDIAN);
+                for (long i = 0; i < total; i++) {
+                    String word = readToken(in, ' ').trim();
+                    in.readFully(raw32);
+                    if (vocabulary.contains(word) && seen.add(word)) {
+                        float[] vector = new float[dimension];
+                        for (int d = 0; d < dimension; d++) {
+                            vector[d] = floats.getFloat(4 * d);
+                        }
+                        words.add(word);
+                        vectors.add(vector);
+                    }
+                }
+                return dimension;
+            }
+
+            BufferedReader br = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8), 1 << 20);
+            int dimension = -1;
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length <= 2) {
+                    continue; // header or blank line
+                }
+                if (dimension < 0) {
+                    dimension = parts.length - 1;
+                }
+                String word = parts[0];
+                if (vocabulary.contains(word) && seen.add(word)) {
+                    float[] vector = new float[dimension];
+                    for (int d = 0; d < dimension; d++) {
+                        vector[d] = Float.parseFloat(parts[d + 1]);
+                    }
+                    words.add(word);
+                    vectors.add(vector);
+                }
+            }
+            return Math.max(dimension, 0);
+        }
+    }
+
+    private static String readToken(DataInputStream in, char delimiter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (bytes.size() == 0) {
+                    throw new EOFException();
+                }
+                break;
+            }
+            if (b == delimiter) {
+                break;
+            }
+            bytes.write(b);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // One-time conversion from a full word2vec model to a corpus-restricted store:
+    //   java WordVectorStore <word2vec model> <dataset> <output.wvs> [--int8] [--vocab <extra words file>]
+    // The extra vocabulary file (one word per line) covers query words that never occur in titles.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: WordVectorStore <word2vec model> <dataset> <output.wvs> [--int8] [--vocab <file>]");
+            System.exit(1);
+        }
+        boolean int8 = false;
+        String extraVocabulary = null;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--int8")) {
+                int8 = true;
+            } else if (args[i].equals("--vocab") && i + 1 < args.length) {
+                extraVocabulary = args[++i];
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        Set<String> vocabulary = corpusVocabulary(args[1]);
+        if (extraVocabulary != null) {
+            for (String word : Files.readAllLines(Paths.get(extraVocabulary), StandardCharsets.UTF_8)) {
+                vocabulary.addAll(SemanticClusterSearchEngine.tokenize(word));
+            }
+        }
+        System.out.println("Corpus vocabulary: " + vocabulary.size() + " words.");
+
+        List<String> words = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        int dimension = readNeededVectors(args[0], vocabulary, words, vectors);
+        write(args[2], words, vectors, dimension, int8);
+
+        System.out.printf("Wrote %d of %d words (%d dimensions%s) to %s in %.1fs.%n",
+                words.size(), vocabulary.size(), dimension, int8 ? ", int8" : "", args[2],
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,40 @@
+import org.deeplearning4j.models.word2vec.Word2Vec;
+
+// Read-only word embedding lookup used to build title and query vectors. Implementations
+// must be safe for concurrent readers.
+public interface WordVectors {
+    int dimension();
+
+    boolean hasWord(String word);
+
+    // Adds the word's vector to target; returns false (leaving target untouched) if the word
+    // is not in the vocabulary
+    boolean accumulate(String word, double[] target);
+
+    // Adapter over a fully loaded DL4J model, e.g. the original GoogleNews .bin file
+    static WordVectors fromWord2Vec(Word2Vec model) {
+        return new WordVectors() {
+            @Override
+            public int dimension() {
+                return model.getLayerSize();
+            }
+
+            @Override
+            public boolean hasWord(String word) {
+                return model.hasWord(word);
+            }
+
+            @Override
+            public boolean accumulate(String word, double[] target) {
+                if (!model.hasWord(word)) {
+                    return false;
+                }
+                double[] vector = model.getWordVector(word);
+                for (int i = 0; i < target.length; i++) {
+                    target[i] += vector[i];
+                }
+                return true;
+            }
+        };
+    }
+}